@@ -0,0 +1,245 @@
+package com.ajay.bio.util;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the dot counting hot path on synthetic plates, see {@link SyntheticPlate}.
+ * <p>
+ * Whole plate benchmarks report the {@code megapixels} counter next to the score, i.e. megapixels per second;
+ * run through {@link BenchmarkMain} to get the allocation rate per operation ({@code gc.alloc.rate.norm}) too.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class DotCountingBenchmark {
+    private static final int FIRST_DOT_LIMIT = 120;
+    private static final int FIRST_BACKGROUND_LIMIT = 100;
+
+    /**
+     * The plate under test, generated once per trial.
+     */
+    @State(Scope.Benchmark)
+    public static class Plate {
+        @Param({"2048"})
+        public int size;
+
+        @Param({"200"})
+        public double dotsPerMegapixel;
+
+        @Param({"2.0"})
+        public double dotRadius;
+
+        @Param({"4.0"})
+        public double noise;
+
+        BufferedImage image;
+        GreenPlane greenPlane;
+        Path workDir;
+        Path tiffFile;
+        // seeds of the islands found by the first pass, in scan order
+        int[] seeds;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            image = SyntheticPlate.generate(size, size, dotsPerMegapixel, dotRadius, noise, 42L);
+            greenPlane = GreenPlane.of(image);
+
+            workDir = Files.createTempDirectory("vati-benchmark-");
+            tiffFile = workDir.resolve("plate.tif");
+            SyntheticPlate.writeTiff(image, tiffFile.toFile());
+
+            seeds = findSeeds();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Exception {
+            FileUtils.deleteDirectory(workDir.toFile());
+        }
+
+        double megapixels() {
+            return (double) size * size / 1_000_000d;
+        }
+
+        private int[] findSeeds() {
+            int[] found = new int[256];
+            int count = 0;
+            try (final FloodFillEngine engine = new FloodFillEngine(greenPlane, PixelMaskStorage.HEAP)) {
+                for (int index = 0; index < size * size; index++) {
+                    if (!engine.isVisited(index) && greenPlane.green(index) >= FIRST_DOT_LIMIT) {
+                        engine.expandIsland(index, FIRST_DOT_LIMIT);
+                        if (count == found.length) {
+                            found = Arrays.copyOf(found, count * 2);
+                        }
+                        found[count++] = index;
+                    }
+                }
+            }
+            return Arrays.copyOf(found, count);
+        }
+    }
+
+    /**
+     * How the dots of a whole plate are counted.
+     */
+    @State(Scope.Benchmark)
+    public static class Counting {
+        @Param({"SERIAL", "TILED", "COMPONENT_TREE", "STREAMING"})
+        public String strategy;
+
+        @Param({"DIRECT"})
+        public PixelMaskStorage maskStorage;
+
+        int tileParallelism;
+        boolean componentTree;
+        boolean streaming;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            tileParallelism = "TILED".equals(strategy) ? Runtime.getRuntime().availableProcessors() : 1;
+            componentTree = "COMPONENT_TREE".equals(strategy);
+            streaming = "STREAMING".equals(strategy);
+        }
+    }
+
+    /**
+     * Megapixels processed, reported as a rate next to the operation count.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Pixels {
+        public double megapixels;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            megapixels = 0;
+        }
+    }
+
+    /**
+     * Serial engine over the plate; benchmarks put back what they expand so its masks stay clear.
+     */
+    @State(Scope.Thread)
+    public static class Engine {
+        FloodFillEngine engine;
+
+        @Setup(Level.Iteration)
+        public void setUp(final Plate plate) {
+            engine = new FloodFillEngine(plate.greenPlane, PixelMaskStorage.DIRECT);
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() {
+            engine.close();
+        }
+    }
+
+    /**
+     * Per invocation copy of the plate for the single threshold fill, which colours the image it runs on.
+     */
+    @State(Scope.Thread)
+    public static class ColouredPlate {
+        BufferedImage image;
+        boolean[][] visited;
+
+        @Setup(Level.Invocation)
+        public void setUp(final Plate plate) {
+            image = new BufferedImage(plate.image.getColorModel(), plate.image.copyData(null), false, null);
+            visited = new boolean[plate.size][plate.size];
+        }
+    }
+
+    /**
+     * Decode, count and encode, as the IMAGE_PROCESSOR tool does for each file.
+     */
+    @Benchmark
+    public int processTifFile(final Plate plate, final Counting counting, final Pixels pixels) throws Exception {
+        pixels.megapixels += plate.megapixels();
+        return ImageProcessingStrategyTwo.processTifFile(plate.tiffFile, plate.workDir, counting.tileParallelism,
+                                                         counting.componentTree, counting.streaming,
+                                                         counting.maskStorage);
+    }
+
+    /**
+     * The eight counting passes on an already decoded plate.
+     */
+    @Benchmark
+    public int countDots(final Plate plate, final Counting counting, final Pixels pixels) {
+        pixels.megapixels += plate.megapixels();
+        return ImageProcessingStrategyTwo.countAndMarkDots(plate.greenPlane, new PixelMarks(plate.size),
+                                                           counting.tileParallelism, counting.componentTree,
+                                                           counting.maskStorage, new ProcessingMetrics());
+    }
+
+    /**
+     * Expands every island of the first pass and puts it back, an operation covers all of them.
+     */
+    @Benchmark
+    public int expandIsland(final Plate plate, final Engine engine) {
+        int pixelCount = 0;
+        for (final int seed : plate.seeds) {
+            pixelCount += engine.engine.expandIsland(seed, FIRST_DOT_LIMIT);
+            engine.engine.unvisitIsland();
+        }
+        return pixelCount;
+    }
+
+    /**
+     * Expands every island of the first pass and grows the boundary to mark around it.
+     */
+    @Benchmark
+    public int getBoundaryToMark(final Plate plate, final Engine engine) {
+        int validCount = 0;
+        for (final int seed : plate.seeds) {
+            engine.engine.expandIsland(seed, FIRST_DOT_LIMIT);
+            engine.engine.getBoundaryToMark();
+            if (engine.engine.isValidBoundary(FIRST_BACKGROUND_LIMIT)) {
+                ++validCount;
+            }
+            engine.engine.unvisitIsland();
+        }
+        return validCount;
+    }
+
+    /**
+     * One single threshold pass of {@link BaseStrategy#markDotRedIfAboveThreshold} over the whole plate.
+     */
+    @Benchmark
+    public int markDotRedIfAboveThreshold(final Plate plate, final ColouredPlate coloured, final Pixels pixels) {
+        pixels.megapixels += plate.megapixels();
+        int count = 0;
+        for (int x = 0; x < plate.size; x++) {
+            for (int y = 0; y < plate.size; y++) {
+                if (!coloured.visited[x][y]
+                            && BaseStrategy.isPixelAboveThreshold(coloured.image.getRGB(x, y), FIRST_DOT_LIMIT)
+                            && BaseStrategy.markDotRedIfAboveThreshold(x, y, coloured.image, coloured.visited,
+                                                                       FIRST_DOT_LIMIT)) {
+                    ++count;
+                }
+            }
+        }
+        return count;
+    }
+}
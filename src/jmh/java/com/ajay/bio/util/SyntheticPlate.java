@@ -0,0 +1,76 @@
+package com.ajay.bio.util;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+import org.apache.commons.imaging.ImageWriteException;
+import org.apache.commons.imaging.formats.tiff.TiffImageParser;
+import org.apache.commons.imaging.formats.tiff.TiffImagingParameters;
+
+/**
+ * Generates plate like images for the benchmarks: a dark, noisy background with gaussian dots on the green
+ * channel. The same arguments always give the same image.
+ */
+final class SyntheticPlate {
+    // one dot in LARGE_DOT_ODDS is a large, dimmer blob, as found on real plates
+    private static final int LARGE_DOT_ODDS = 15;
+    private static final double BACKGROUND_LEVEL = 5;
+
+    private SyntheticPlate() {
+    }
+
+    /**
+     * @param dotsPerMegapixel dot density
+     * @param dotRadius        mean radius, in pixels, of the regular dots
+     * @param noise            standard deviation of the background green level
+     */
+    static BufferedImage generate(final int width, final int height, final double dotsPerMegapixel,
+                                  final double dotRadius, final double noise, final long seed) {
+        final Random random = new Random(seed);
+        final double[] green = new double[width * height];
+        for (int i = 0; i < green.length; i++) {
+            green[i] = BACKGROUND_LEVEL + random.nextGaussian() * noise;
+        }
+
+        final int dotCount = (int) Math.round(dotsPerMegapixel * width * height / 1_000_000d);
+        for (int dot = 0; dot < dotCount; dot++) {
+            final int centerX = random.nextInt(width);
+            final int centerY = random.nextInt(height);
+            double sigma = dotRadius * (0.5 + random.nextDouble());
+            double amplitude = 20 + random.nextDouble() * 220;
+            if (random.nextInt(LARGE_DOT_ODDS) == 0) {
+                sigma *= 10;
+                amplitude = 50 + random.nextDouble() * 100;
+            }
+
+            final int reach = (int) (sigma * 3) + 1;
+            for (int y = Math.max(0, centerY - reach); y < Math.min(height, centerY + reach); y++) {
+                for (int x = Math.max(0, centerX - reach); x < Math.min(width, centerX + reach); x++) {
+                    final double distance = ((x - centerX) * (x - centerX) + (y - centerY) * (y - centerY))
+                                                    / (2 * sigma * sigma);
+                    green[y * width + x] += amplitude * Math.exp(-distance);
+                }
+            }
+        }
+
+        final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                final int value = (int) Math.max(0, Math.min(255, green[y * width + x]));
+                image.setRGB(x, y, (random.nextInt(60) << 16) | (value << 8) | random.nextInt(60));
+            }
+        }
+        return image;
+    }
+
+    static void writeTiff(final BufferedImage image, final File file) throws IOException, ImageWriteException {
+        try (final OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(file))) {
+            new TiffImageParser().writeImage(image, outputStream, new TiffImagingParameters());
+        }
+    }
+}
@@ -5,6 +5,7 @@ import java.nio.file.Paths;
 import java.util.Arrays;
 
 import com.ajay.bio.tool.VatiTool;
+import com.ajay.bio.tool.impl.StubServerTool;
 import com.google.common.collect.Lists;
 import org.fusesource.jansi.AnsiConsole;
 import org.jline.builtins.Options;
@@ -122,6 +123,9 @@ public class Main {
             }
         } catch (Throwable t) {
             t.printStackTrace();
+        } finally {
+            // its threads would keep the shell from exiting
+            StubServerTool.stopServer();
         }
     }
 }
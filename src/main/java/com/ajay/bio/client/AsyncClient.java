@@ -0,0 +1,159 @@
+package com.ajay.bio.client;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+
+import lombok.extern.log4j.Log4j2;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
+import org.apache.http.nio.client.methods.ZeroCopyConsumer;
+import org.apache.http.nio.protocol.BasicAsyncResponseConsumer;
+import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * Non blocking HTTP client shared by the service clients. Requests are sent and responses are read by a few IO
+ * threads, one per processor, so hundreds of slow requests can be in flight without a thread each. Responses are
+ * either held in memory or streamed to a file as they arrive.
+ * <p>
+ * The returned futures are completed on the IO threads, which should not be kept busy, later stages doing more
+ * than a little work should run on an executor of their own. Responses with an HTTP status of 400 and above fail
+ * with a {@link HttpResponseException}.
+ */
+@Log4j2
+public final class AsyncClient {
+    public static final int MAX_CONNECTIONS = 500;
+
+    private static CloseableHttpAsyncClient client;
+
+    private AsyncClient() {
+        // hide constructor
+    }
+
+    /**
+     * Sends {@code request} and returns its response body.
+     */
+    public static CompletableFuture<byte[]> execute(final HttpUriRequest request) {
+        final CompletableFuture<HttpResponse> response = execute(request, new BasicAsyncResponseConsumer());
+        return response.thenApply(httpResponse -> {
+            try {
+                checkStatus(httpResponse);
+                return EntityUtils.toByteArray(httpResponse.getEntity());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * Sends {@code request} and streams its response body to {@code filePath}, which is returned. Anything already
+     * in the file is replaced. The file is deleted if the request failed.
+     */
+    public static CompletableFuture<Path> execute(final HttpUriRequest request, final Path filePath) {
+        final ZeroCopyConsumer<Path> consumer;
+        try {
+            // the consumer writes from the start without truncating, a longer old file would keep its tail
+            Files.deleteIfExists(filePath);
+            consumer = new ZeroCopyConsumer<Path>(filePath.toFile()) {
+                @Override
+                protected Path process(final HttpResponse httpResponse, final File file,
+                                       final ContentType contentType) throws HttpResponseException {
+                    checkStatus(httpResponse);
+                    return file.toPath();
+                }
+            };
+        } catch (IOException e) {
+            return failedFuture(e);
+        }
+
+        final CompletableFuture<Path> response = execute(request, consumer);
+        response.whenComplete((path, e) -> {
+            if (e != null && !filePath.toFile().delete() && filePath.toFile().exists()) {
+                log.warn("Failed to delete response file - {}", filePath);
+            }
+        });
+        return response;
+    }
+
+    public static synchronized void shutDown() {
+        if (client == null) {
+            return;
+        }
+
+        try {
+            client.close();
+            client = null;
+        } catch (IOException e) {
+            log.error("Async HTTP Client shutdown failed");
+            log.debug("IO Exception - ", e);
+        }
+    }
+
+    /**
+     * A future failed with {@code e} already.
+     */
+    static <T> CompletableFuture<T> failedFuture(final Throwable e) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(e);
+        return future;
+    }
+
+    private static <T> CompletableFuture<T> execute(final HttpUriRequest request,
+                                                    final HttpAsyncResponseConsumer<T> consumer) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            getClient().execute(HttpAsyncMethods.create(request), consumer, new FutureCallback<T>() {
+                @Override
+                public void completed(final T result) {
+                    future.complete(result);
+                }
+
+                @Override
+                public void failed(final Exception e) {
+                    future.completeExceptionally(e);
+                }
+
+                @Override
+                public void cancelled() {
+                    future.cancel(false);
+                }
+            });
+        } catch (IOReactorException | RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    // created again after a shut down, as tools can be run many times from the same shell
+    private static synchronized CloseableHttpAsyncClient getClient() throws IOReactorException {
+        if (client == null) {
+            final PoolingNHttpClientConnectionManager cm =
+                    new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor());
+            cm.setMaxTotal(MAX_CONNECTIONS);
+            cm.setDefaultMaxPerRoute(MAX_CONNECTIONS);
+            client = HttpAsyncClients.custom().setConnectionManager(cm).build();
+            client.start();
+        }
+        return client;
+    }
+
+    private static void checkStatus(final HttpResponse httpResponse) throws HttpResponseException {
+        final int statusCode = httpResponse.getStatusLine().getStatusCode();
+        if (statusCode >= 400) {
+            throw new HttpResponseException(statusCode, "Service responded with HTTP status " + statusCode);
+        }
+    }
+}
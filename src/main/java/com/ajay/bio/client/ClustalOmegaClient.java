@@ -3,10 +3,13 @@ package com.ajay.bio.client;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import javax.ws.rs.BadRequestException;
 import javax.ws.rs.NotAcceptableException;
+import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.client.WebTarget;
@@ -14,10 +17,23 @@ import javax.ws.rs.core.Form;
 import javax.ws.rs.core.MediaType;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.http.client.methods.HttpGet;
 
 public class ClustalOmegaClient {
-    private static final String BASE_URL = "http://www.ebi.ac.uk/Tools/services/rest/clustalo";
-    private static final WebTarget runTarget = ClientBuilder.newClient().target(BASE_URL);
+    public static final String DEFAULT_BASE_URL = "http://www.ebi.ac.uk/Tools/services/rest/clustalo";
+    private static final Client client = ClientBuilder.newClient();
+    private static volatile WebTarget runTarget = client.target(DEFAULT_BASE_URL);
+
+    /**
+     * Sets the URL of the Clustal Omega REST service, the EBI service by default.
+     */
+    public static void setBaseUrl(final String url) {
+        runTarget = client.target(url);
+    }
+
+    public static String getBaseUrl() {
+        return runTarget.getUri().toString();
+    }
 
     public static String submitProteinSequenceJob(final List<String> sequenceList) throws IOException {
         return submitJob(sequenceList, "protein");
@@ -72,4 +88,22 @@ public class ClustalOmegaClient {
                         .request(MediaType.APPLICATION_OCTET_STREAM)
                         .get(String.class);
     }
+
+    /**
+     * Gets the status of a job without blocking.
+     */
+    public static CompletableFuture<String> getJobStatusAsync(final String jobId) {
+        final HttpGet httpGet = new HttpGet(runTarget.path("status").path(jobId).getUri());
+        httpGet.setHeader("Accept", MediaType.TEXT_PLAIN);
+        return AsyncClient.execute(httpGet).thenApply(status -> new String(status, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Gets the output of a completed job without blocking, streamed to {@code filePath} as it arrives.
+     */
+    public static CompletableFuture<Path> saveCompletedJobOutputAsync(final String jobId, final Path filePath) {
+        final HttpGet httpGet = new HttpGet(runTarget.path("result").path(jobId).path("aln-clustal_num").getUri());
+        httpGet.setHeader("Accept", MediaType.APPLICATION_OCTET_STREAM);
+        return AsyncClient.execute(httpGet, filePath);
+    }
 }
@@ -1,25 +1,53 @@
 package com.ajay.bio.client;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.Locale;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 import lombok.extern.log4j.Log4j2;
-import org.apache.commons.io.IOUtils;
 import org.apache.http.HttpEntity;
+import org.apache.http.client.HttpResponseException;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.mime.MultipartEntityBuilder;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.impl.conn.ManagedHttpClientConnectionFactory;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
 
 @Log4j2
 public class IMGTClient {
-    private static final String BASE_URL = "https://www.imgt.org/IMGT_vquest/analysis";
-    private static final CloseableHttpClient client = createClient();
+    public static final String DEFAULT_BASE_URL = "https://www.imgt.org/IMGT_vquest/analysis";
+    private static volatile String baseUrl = DEFAULT_BASE_URL;
+    private static CloseableHttpClient client;
+
+    /**
+     * Sets the URL analyses are requested from, the IMGT/V-QUEST analysis page by default.
+     */
+    public static void setBaseUrl(final String url) {
+        baseUrl = url;
+    }
+
+    public static String getBaseUrl() {
+        return baseUrl;
+    }
+
+    // created again after a shut down, as tools can be run many times from the same shell
+    private static synchronized CloseableHttpClient getClient() {
+        if (client == null) {
+            client = createClient();
+        }
+        return client;
+    }
 
     private static CloseableHttpClient createClient() {
         final PoolingHttpClientConnectionManager cm =
@@ -33,28 +61,65 @@ public class IMGTClient {
                           .build();
     }
 
-    public static byte[] getIMGTAnalysisResponse(final String fastaSequence) throws IOException {
-        final HttpPost httpPost = new HttpPost(BASE_URL);
-        final HttpEntity entity = createMultipartEntity(fastaSequence);
-        httpPost.setEntity(entity);
+    /**
+     * Requests an analysis and streams its response to {@code filePath} as it arrives, rather than holding it in
+     * memory.
+     */
+    public static void saveIMGTAnalysisResponse(final String fastaSequence, final Path filePath) throws IOException {
+        final HttpPost httpPost = new HttpPost(baseUrl);
+        httpPost.setEntity(createMultipartEntity(fastaSequence));
 
         addHeaders(httpPost);
-        try (final CloseableHttpResponse response = client.execute(httpPost)) {
-            final byte[] responseContent = IOUtils.toByteArray(response.getEntity().getContent());
-            httpPost.releaseConnection();
-            return responseContent;
+        try (final CloseableHttpResponse response = getClient().execute(httpPost)) {
+            // throttling and server errors are failures to retry, rather than error pages to keep
+            final int statusCode = response.getStatusLine().getStatusCode();
+            if (statusCode >= 400) {
+                EntityUtils.consume(response.getEntity());
+                throw new HttpResponseException(statusCode, "IMGT responded with HTTP status " + statusCode);
+            }
+            try (final InputStream content = response.getEntity().getContent()) {
+                Files.copy(content, filePath, StandardCopyOption.REPLACE_EXISTING);
+            }
         }
     }
 
-    public static void shutDown() {
+    /**
+     * Requests an analysis without blocking, its response is streamed to {@code filePath} as it arrives.
+     */
+    public static CompletableFuture<Path> saveIMGTAnalysisResponseAsync(final String fastaSequence,
+                                                                        final Path filePath) {
+        try {
+            return AsyncClient.execute(createAsyncRequest(fastaSequence), filePath);
+        } catch (IOException e) {
+            return AsyncClient.failedFuture(e);
+        }
+    }
+
+    public static synchronized void shutDown() {
+        if (client == null) {
+            return;
+        }
+
         try {
             client.close();
+            client = null;
         } catch (IOException e) {
             log.error("HTTP Client shutdown failed");
             e.printStackTrace();
         }
     }
 
+    private static HttpPost createAsyncRequest(final String fastaSequence) throws IOException {
+        final HttpPost httpPost = new HttpPost(baseUrl);
+        // the async client reads the entity as a stream, which multipart entities only allow if small
+        final ByteArrayOutputStream entityContent = new ByteArrayOutputStream();
+        createMultipartEntity(fastaSequence).writeTo(entityContent);
+        httpPost.setEntity(new ByteArrayEntity(entityContent.toByteArray()));
+
+        addHeaders(httpPost);
+        return httpPost;
+    }
+
     private static void addHeaders(final HttpPost httpPost) {
         final String sessionId = UUID.randomUUID().toString().toUpperCase(Locale.ROOT).substring(0, 16);
         httpPost.setHeader("Accept", "text/html,application/xhtml+xml,application/xml;q=0.9,image/webp,*/*;q=0.8");
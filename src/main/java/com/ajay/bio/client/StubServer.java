@@ -0,0 +1,370 @@
+package com.ajay.bio.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ajay.bio.util.ImgtWorkbookSplitter;
+import com.ajay.bio.util.InputDiscovery;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.extern.log4j.Log4j2;
+import org.apache.commons.io.IOUtils;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.Workbook;
+
+/**
+ * Local stand-in for the IMGT/V-QUEST analysis page and the Clustal Omega REST service, so the tools can be run and
+ * measured without network. Recorded responses are replayed in turn: IMGT Excel files ({@code *.xls}) and error
+ * pages ({@code *.html}) as saved by IMGT_ANALYSIS, and alignments ({@code *.aln}, {@code *-clustal-omega.txt}) as
+ * saved by CLUSTAL_ALIGNMENT, found anywhere below the response directory.
+ * <p>
+ * A request submitting several sequences gets the rows of the recorded analysis repeated for each of them, as
+ * IMGT/V-QUEST would answer a batch. Responses can be delayed, failed at random and throttled, which makes the
+ * retries and the scaling of the tools with their parallelism visible on a single machine.
+ */
+@Log4j2
+public class StubServer implements AutoCloseable {
+    public static final String IMGT_PATH = "/IMGT_vquest/analysis";
+    public static final String CLUSTALO_PATH = "/clustalo";
+
+    private static final String ERROR_PAGE
+            = "<html><body><p>Stub server error, please try again later</p></body></html>";
+
+    private final List<Path> workbookFiles;
+    private final List<Path> errorPageFiles;
+    private final List<Path> alignmentFiles;
+    private final Random random;
+
+    private long latencyMillis;
+    private long latencyJitterMillis;
+    private long sequenceLatencyMillis;
+    private double errorRate;
+    private int maxRequestsPerSecond;
+    private long jobMillis;
+    // requests being worked on at once, the others wait in turn
+    private Semaphore workers;
+
+    // token bucket of the throttling, refilled at the maximum rate
+    private double tokens;
+    private long tokensRefilledNanos;
+
+    private final AtomicInteger nextWorkbook = new AtomicInteger();
+    private final AtomicInteger nextErrorPage = new AtomicInteger();
+    private final AtomicInteger nextJob = new AtomicInteger();
+    private final Map<String, Long> jobSubmitMillis = new ConcurrentHashMap<>();
+
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong errorCount = new AtomicLong();
+    private final AtomicLong throttledCount = new AtomicLong();
+
+    private HttpServer server;
+    private ExecutorService executorService;
+
+    /**
+     * Finds the recorded responses of {@code responseDirPath}, {@code seed} makes the random failures repeatable.
+     */
+    public StubServer(final Path responseDirPath, final long seed) throws IOException {
+        this.workbookFiles = findFiles(responseDirPath, "*.xls");
+        this.errorPageFiles = findFiles(responseDirPath, "*.html");
+        this.alignmentFiles = findFiles(responseDirPath, "{*.aln,*-clustal-omega.txt}");
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Delays each response by {@code latencyMillis}, up to {@code latencyJitterMillis} more at random, and
+     * {@code sequenceLatencyMillis} more for each sequence submitted to IMGT.
+     */
+    public void setLatency(final long latencyMillis, final long latencyJitterMillis, final long sequenceLatencyMillis) {
+        this.latencyMillis = latencyMillis;
+        this.latencyJitterMillis = latencyJitterMillis;
+        this.sequenceLatencyMillis = sequenceLatencyMillis;
+    }
+
+    /**
+     * Fails this share of requests, with an error page for IMGT and a server error for Clustal Omega.
+     */
+    public void setErrorRate(final double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+    /**
+     * Answers requests beyond this rate with {@code 429 Too Many Requests}, 0 for no limit. Bursts of up to a
+     * second of requests are let through.
+     */
+    public synchronized void setMaxRequestsPerSecond(final int maxRequestsPerSecond) {
+        this.maxRequestsPerSecond = maxRequestsPerSecond;
+        this.tokens = maxRequestsPerSecond;
+        this.tokensRefilledNanos = System.nanoTime();
+    }
+
+    /**
+     * Works on at most {@code maxConcurrentRequests} requests at once, 0 for no limit. Requests beyond wait for
+     * their turn, so their latency grows with the requests in flight as it would on a busy service.
+     */
+    public void setMaxConcurrentRequests(final int maxConcurrentRequests) {
+        this.workers = maxConcurrentRequests == 0 ? null : new Semaphore(maxConcurrentRequests, true);
+    }
+
+    /**
+     * Time a Clustal Omega job runs for, from its submission until its status is finished.
+     */
+    public void setJobMillis(final long jobMillis) {
+        this.jobMillis = jobMillis;
+    }
+
+    public int getWorkbookCount() {
+        return workbookFiles.size();
+    }
+
+    public int getAlignmentCount() {
+        return alignmentFiles.size();
+    }
+
+    /**
+     * Starts serving on {@code port} of the loopback address, any free port if 0, and returns the port.
+     */
+    public int start(final int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        // a thread per request, so delayed responses do not hold back the others
+        executorService = Executors.newCachedThreadPool();
+        server.setExecutor(executorService);
+        server.createContext(IMGT_PATH, this::handleImgtRequest);
+        server.createContext(CLUSTALO_PATH, this::handleClustalRequest);
+        server.start();
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        if (server == null) {
+            return;
+        }
+
+        server.stop(0);
+        executorService.shutdownNow();
+        try {
+            executorService.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        server = null;
+        log.info("Stub server stopped after {} requests, {} failed and {} throttled", requestCount.get(),
+                 errorCount.get(), throttledCount.get());
+    }
+
+    private void handleImgtRequest(final HttpExchange exchange) throws IOException {
+        try {
+            final byte[] request = IOUtils.toByteArray(exchange.getRequestBody());
+            if (!admit(exchange)) {
+                return;
+            }
+
+            final String sequences = getFormField(request, exchange.getRequestHeaders().getFirst("Content-Type"),
+                                                  "sequences");
+            final int sequenceCount = sequences == null ? 1 : ImgtWorkbookSplitter.countSequences(sequences);
+            delay(sequenceCount * sequenceLatencyMillis);
+
+            if (isFailure() || workbookFiles.isEmpty()) {
+                send(exchange, 200, "text/html;charset=UTF-8", getErrorPage());
+                return;
+            }
+
+            final Path workbookFile = next(workbookFiles, nextWorkbook);
+            if (sequenceCount == 1) {
+                send(exchange, 200, "application/vnd.ms-excel", Files.readAllBytes(workbookFile));
+                return;
+            }
+
+            try (final InputStream inputStream = Files.newInputStream(workbookFile);
+                 final Workbook workbook = new HSSFWorkbook(inputStream);
+                 final Workbook batchWorkbook = ImgtWorkbookSplitter.repeat(workbook, sequenceCount)) {
+                final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                batchWorkbook.write(outputStream);
+                send(exchange, 200, "application/vnd.ms-excel", outputStream.toByteArray());
+            }
+        } catch (Exception e) {
+            log.debug("Stub server failure - ", e);
+            sendText(exchange, 500, e.toString());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Answers {@code run}, {@code status/{jobId}} and {@code result/{jobId}/{type}} of the Clustal Omega service.
+     */
+    private void handleClustalRequest(final HttpExchange exchange) throws IOException {
+        try {
+            IOUtils.toByteArray(exchange.getRequestBody());
+            if (!admit(exchange)) {
+                return;
+            }
+
+            delay(0);
+            if (isFailure()) {
+                send(exchange, 500, "text/plain", "Stub server error".getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+
+            final String[] parts = exchange.getRequestURI().getPath().substring(CLUSTALO_PATH.length()).split("/");
+            final String action = parts.length > 1 ? parts[1] : "";
+            final String jobId = parts.length > 2 ? parts[2] : "";
+            final Long submitMillis = jobSubmitMillis.get(jobId);
+            if ("run".equals(action) && "POST".equals(exchange.getRequestMethod())) {
+                final String newJobId = "clustalo-stub-" + nextJob.getAndIncrement();
+                jobSubmitMillis.put(newJobId, System.currentTimeMillis());
+                sendText(exchange, 200, newJobId);
+            } else if ("status".equals(action)) {
+                if (submitMillis == null) {
+                    sendText(exchange, 200, "NOT_FOUND");
+                } else {
+                    final boolean finished = System.currentTimeMillis() - submitMillis >= jobMillis;
+                    sendText(exchange, 200, finished ? "FINISHED" : "RUNNING");
+                }
+            } else if ("result".equals(action) && submitMillis != null && !alignmentFiles.isEmpty()) {
+                // the same alignment for a job every time it is asked for
+                final int jobNumber = Integer.parseInt(jobId.substring(jobId.lastIndexOf('-') + 1));
+                final Path alignmentFile = alignmentFiles.get(jobNumber % alignmentFiles.size());
+                send(exchange, 200, "application/octet-stream", Files.readAllBytes(alignmentFile));
+            } else {
+                sendText(exchange, 404, "Not found - " + exchange.getRequestURI());
+            }
+        } catch (Exception e) {
+            log.debug("Stub server failure - ", e);
+            sendText(exchange, 500, e.toString());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Counts the request, and answers it as throttled if it is over the rate.
+     */
+    private boolean admit(final HttpExchange exchange) throws IOException {
+        requestCount.incrementAndGet();
+        if (tryAcquireToken()) {
+            return true;
+        }
+
+        throttledCount.incrementAndGet();
+        exchange.getResponseHeaders().set("Retry-After", "1");
+        sendText(exchange, 429, "Too many requests");
+        return false;
+    }
+
+    private synchronized boolean tryAcquireToken() {
+        if (maxRequestsPerSecond == 0) {
+            return true;
+        }
+
+        final long now = System.nanoTime();
+        tokens = Math.min(maxRequestsPerSecond, tokens + (now - tokensRefilledNanos) * maxRequestsPerSecond / 1e9);
+        tokensRefilledNanos = now;
+        if (tokens < 1) {
+            return false;
+        }
+        --tokens;
+        return true;
+    }
+
+    private boolean isFailure() {
+        if (errorRate > 0 && random.nextDouble() < errorRate) {
+            errorCount.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    private void delay(final long extraMillis) throws InterruptedException {
+        long millis = latencyMillis + extraMillis;
+        if (latencyJitterMillis > 0) {
+            millis += (long) (random.nextDouble() * latencyJitterMillis);
+        }
+        if (millis <= 0) {
+            return;
+        }
+
+        if (workers == null) {
+            Thread.sleep(millis);
+            return;
+        }
+        workers.acquire();
+        try {
+            Thread.sleep(millis);
+        } finally {
+            workers.release();
+        }
+    }
+
+    private byte[] getErrorPage() throws IOException {
+        if (errorPageFiles.isEmpty()) {
+            return ERROR_PAGE.getBytes(StandardCharsets.UTF_8);
+        }
+        return Files.readAllBytes(next(errorPageFiles, nextErrorPage));
+    }
+
+    private static Path next(final List<Path> files, final AtomicInteger nextIndex) {
+        return files.get(Math.floorMod(nextIndex.getAndIncrement(), files.size()));
+    }
+
+    private static List<Path> findFiles(final Path dirPath, final String glob) throws IOException {
+        final List<Path> files = new ArrayList<>();
+        for (final InputDiscovery.InputFile inputFile : InputDiscovery.of(dirPath, glob, true).findFiles()) {
+            files.add(inputFile.getPath());
+        }
+        return files;
+    }
+
+    /**
+     * Value of a field of a {@code multipart/form-data} request, or null if it has none.
+     */
+    private static String getFormField(final byte[] request, final String contentType, final String fieldName) {
+        final int boundaryIndex = contentType == null ? -1 : contentType.indexOf("boundary=");
+        if (boundaryIndex < 0) {
+            return null;
+        }
+
+        final String boundary = "\r\n--" + contentType.substring(boundaryIndex + "boundary=".length()).trim();
+        final String body = new String(request, StandardCharsets.ISO_8859_1);
+        final int fieldIndex = body.indexOf("name=\"" + fieldName + "\"");
+        final int start = fieldIndex < 0 ? -1 : body.indexOf("\r\n\r\n", fieldIndex);
+        final int end = start < 0 ? -1 : body.indexOf(boundary, start);
+        if (end < 0) {
+            return null;
+        }
+        return new String(body.substring(start + 4, end).getBytes(StandardCharsets.ISO_8859_1),
+                          StandardCharsets.UTF_8);
+    }
+
+    private static void sendText(final HttpExchange exchange, final int status, final String text) throws IOException {
+        send(exchange, status, "text/plain", text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void send(final HttpExchange exchange, final int status, final String contentType,
+                             final byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        // a length of 0 would be taken as a chunked response
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        try (final OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(body);
+        }
+    }
+}
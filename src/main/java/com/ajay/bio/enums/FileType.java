@@ -2,7 +2,8 @@ package com.ajay.bio.enums;
 
 public enum FileType {
     AB1(".ab1"),
-    FASTA(".fasta");
+    FASTA(".fasta"),
+    FASTQ(".fastq");
 
     public String getTypeString() {
         return typeString;
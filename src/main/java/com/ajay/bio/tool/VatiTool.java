@@ -8,7 +8,9 @@ import com.ajay.bio.tool.impl.FileConverterTool;
 import com.ajay.bio.tool.impl.IGCategorisationTool;
 import com.ajay.bio.tool.impl.IMGTAnalysisTool;
 import com.ajay.bio.tool.impl.ImageProcessorTool;
+import com.ajay.bio.tool.impl.StubServerTool;
 import org.jline.reader.LineReader;
+import org.jline.terminal.Terminal;
 import picocli.CommandLine;
 
 @CommandLine.Command(name = "vati",
@@ -23,13 +25,23 @@ import picocli.CommandLine;
                 ImageProcessorTool.class,
                 IMGTAnalysisTool.class,
                 IGCategorisationTool.class,
-                ClustalAlignmentTool.class
+                ClustalAlignmentTool.class,
+                StubServerTool.class
         })
 public class VatiTool implements Callable<Integer> {
     private PrintWriter out;
+    private Terminal terminal;
 
     public void setReader(LineReader reader) {
-        out = reader.getTerminal().writer();
+        terminal = reader.getTerminal();
+        out = terminal.writer();
+    }
+
+    /**
+     * The terminal of the shell, or null if not run from the shell.
+     */
+    public Terminal getTerminal() {
+        return terminal;
     }
 
     @Override
@@ -14,9 +14,13 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
+import com.ajay.bio.client.AsyncClient;
 import com.ajay.bio.client.ClustalOmegaClient;
 import com.ajay.bio.exception.ToolExecutionException;
+import com.ajay.bio.util.ConcurrencyLimiter;
 import com.ajay.bio.util.ValidationUtil;
 import com.google.common.collect.Lists;
 import lombok.extern.log4j.Log4j2;
@@ -54,6 +58,21 @@ public class ClustalAlignmentTool implements BaseTool {
             description = "Directory where output files should be saved")
     private File outputDir;
 
+    @CommandLine.Option(names = {"--clustal-url"},
+            defaultValue = "${sys:vati.clustalo.url:-" + ClustalOmegaClient.DEFAULT_BASE_URL + "}",
+            description = {"URL of the Clustal Omega REST service, default: ${DEFAULT-VALUE}",
+                           "Set to the STUB_SERVER URL to run without network"})
+    private String clustalUrl;
+
+    @CommandLine.Option(names = {"--async"},
+            description = "Review pending jobs with non blocking requests, outputs are streamed to disk")
+    private boolean async;
+
+    @CommandLine.Option(names = {"--parallelism"},
+            description = {"With --async, number of jobs reviewed at once, value should be in range [1, "
+                                   + AsyncClient.MAX_CONNECTIONS + "], default: ${DEFAULT-VALUE}",
+                           "Each job has a single request to Clustal Omega in flight at a time"})
+    private int parallelism = 10;
 
     private static final String COMBINED_IG_FILE_IGH_SHEET_NAME = "IGH";
     private static final String COMBINED_IG_FILE_IGK_SHEET_NAME = "IGK";
@@ -63,6 +82,11 @@ public class ClustalAlignmentTool implements BaseTool {
     @Override
     public void execute() throws ToolExecutionException {
         ValidationUtil.validateDir(spec, outputDir.toPath());
+        if (parallelism < 1 || parallelism > AsyncClient.MAX_CONNECTIONS) {
+            throw new CommandLine.ParameterException(spec.commandLine(), "Parallelism should be in range [1, "
+                                                                                 + AsyncClient.MAX_CONNECTIONS + "]");
+        }
+        ClustalOmegaClient.setBaseUrl(clustalUrl);
         if (exclusiveOptions.reviewPendingJobs) {
             reviewClustalAlignmentJobs();
         } else {
@@ -93,6 +117,8 @@ public class ClustalAlignmentTool implements BaseTool {
         } catch (IOException e) {
             log.debug("IO Exception - ", e);
             throw new ToolExecutionException(e);
+        } finally {
+            AsyncClient.shutDown();
         }
     }
 
@@ -104,23 +130,28 @@ public class ClustalAlignmentTool implements BaseTool {
             final Set<String> pendingJobDetails
                     = new HashSet<>(FileUtils.readLines(pendingJobFilePath.toFile(), StandardCharsets.UTF_8));
 
-            for (String pendingJobInfo : pendingJobDetails) {
-                final String jobId = pendingJobInfo.split(",")[1];
-                final String outputFileName = pendingJobInfo.split(",")[0];
-                final String jobStatus = ClustalOmegaClient.getJobStatus(jobId);
-                if ("FINISHED".equals(jobStatus)) {
-                    log.debug("Job - {} is completed, writing output to file - {}", jobId, outputFileName);
-                    final String jobOutput = ClustalOmegaClient.getCompletedJobOutput(jobId);
-                    final Path outputFilePath = Paths.get(igSubCategoryDir.toAbsolutePath().toString(), outputFileName);
-                    try {
-                        FileUtils.writeStringToFile(outputFilePath.toFile(), jobOutput, StandardCharsets.UTF_8);
-                        completedJobDetails.add(pendingJobInfo);
-                    } catch (IOException e) {
-                        log.debug("IO Exception", e);
-                        throw new ToolExecutionException(e);
+            if (async) {
+                completedJobDetails.addAll(reviewJobsAsync(igSubCategoryDir, pendingJobDetails));
+            } else {
+                for (String pendingJobInfo : pendingJobDetails) {
+                    final String jobId = pendingJobInfo.split(",")[1];
+                    final String outputFileName = pendingJobInfo.split(",")[0];
+                    final String jobStatus = ClustalOmegaClient.getJobStatus(jobId);
+                    if ("FINISHED".equals(jobStatus)) {
+                        log.debug("Job - {} is completed, writing output to file - {}", jobId, outputFileName);
+                        final String jobOutput = ClustalOmegaClient.getCompletedJobOutput(jobId);
+                        final Path outputFilePath = Paths.get(igSubCategoryDir.toAbsolutePath().toString(),
+                                                              outputFileName);
+                        try {
+                            FileUtils.writeStringToFile(outputFilePath.toFile(), jobOutput, StandardCharsets.UTF_8);
+                            completedJobDetails.add(pendingJobInfo);
+                        } catch (IOException e) {
+                            log.debug("IO Exception", e);
+                            throw new ToolExecutionException(e);
+                        }
+                    } else {
+                        log.info("Job - {} is still in PENDING status..", jobId);
                     }
-                } else {
-                    log.info("Job - {} is still in PENDING status..", jobId);
                 }
             }
 
@@ -140,6 +171,57 @@ public class ClustalAlignmentTool implements BaseTool {
         return true;
     }
 
+    /**
+     * Checks the pending jobs, up to the parallelism at once, and streams the outputs of the finished ones to disk
+     * as they arrive. Returns the details of the jobs completed.
+     */
+    private Set<String> reviewJobsAsync(final Path igSubCategoryDir, final Set<String> pendingJobDetails)
+            throws ToolExecutionException {
+        // a job holds its place from the status request until its output is saved, so the public service sees
+        // at most this many requests at once
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(parallelism, parallelism, false, 0);
+        final List<CompletableFuture<String>> reviews = new ArrayList<>();
+        try {
+            for (String pendingJobInfo : pendingJobDetails) {
+                final String jobId = pendingJobInfo.split(",")[1];
+                final String outputFileName = pendingJobInfo.split(",")[0];
+                final Path outputFilePath = Paths.get(igSubCategoryDir.toAbsolutePath().toString(), outputFileName);
+                final long startNanos = limiter.acquire();
+                final CompletableFuture<String> review = ClustalOmegaClient.getJobStatusAsync(jobId).thenCompose(
+                        jobStatus -> {
+                            if (!"FINISHED".equals(jobStatus)) {
+                                log.info("Job - {} is still in PENDING status..", jobId);
+                                return CompletableFuture.completedFuture(null);
+                            }
+                            log.debug("Job - {} is completed, writing output to file - {}", jobId, outputFileName);
+                            return ClustalOmegaClient.saveCompletedJobOutputAsync(jobId, outputFilePath)
+                                                     .thenApply(path -> pendingJobInfo);
+                        });
+                review.whenComplete((completedJobInfo, e) -> limiter.release(
+                        startNanos, e == null ? ConcurrencyLimiter.Outcome.SUCCESS
+                                              : ConcurrencyLimiter.Outcome.FAILURE));
+                reviews.add(review);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ToolExecutionException(e);
+        }
+
+        final Set<String> completedJobDetails = new HashSet<>();
+        try {
+            for (CompletableFuture<String> review : reviews) {
+                final String completedJobInfo = review.join();
+                if (completedJobInfo != null) {
+                    completedJobDetails.add(completedJobInfo);
+                }
+            }
+        } catch (CompletionException e) {
+            log.debug("Exception - ", e.getCause());
+            throw new ToolExecutionException(e.getCause());
+        }
+        return completedJobDetails;
+    }
+
     private void submitJobs(final Path igFilePath) throws ToolExecutionException {
         try (final Workbook igExcelFile = openExcelWorkbook(igFilePath)) {
             log.info("Submitting IGH Jobs");
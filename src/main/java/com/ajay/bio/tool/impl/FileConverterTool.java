@@ -4,18 +4,29 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import com.ajay.bio.enums.FileType;
 import com.ajay.bio.exception.ToolExecutionException;
 import com.ajay.bio.exception.ValidationException;
+import com.ajay.bio.util.AbifReader;
+import com.ajay.bio.util.InputDiscovery;
+import com.ajay.bio.util.MergedFileWriter;
+import com.ajay.bio.util.QualityTrimmer;
+import com.ajay.bio.util.SequenceRead;
 import com.ajay.bio.util.ValidationUtil;
 import lombok.extern.log4j.Log4j2;
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.filefilter.TrueFileFilter;
 import org.biojava.nbio.core.sequence.DNASequence;
 import org.biojava.nbio.core.sequence.compound.AmbiguityDNACompoundSet;
 import org.biojava.nbio.core.sequence.compound.NucleotideCompound;
@@ -51,20 +62,84 @@ public class FileConverterTool implements BaseTool {
             description = "Type to convert to")
     private FileType outputFileType;
 
+    @CommandLine.Option(names = {"--recursive"},
+            description = {"Also convert the files of the sub directories of the input directory",
+                           "Output files are saved in the same sub directories of the output directory"})
+    private boolean recursive;
+
+    @CommandLine.Option(names = {"--parallelism"},
+            description = {"Number of files to convert in parallel, value should be at least 1",
+                           "Each file is written as soon as it is converted, so memory use does not grow with "
+                                   + "the number of files"})
+    private int parallelism = 1;
+
+    @CommandLine.Option(names = {"--decoder"},
+            description = {"How AB1 files are read, one of ${COMPLETION-CANDIDATES}",
+                           "BIOJAVA (default) decodes the whole trace, MAPPED only reads the base calls from a "
+                                   + "memory mapped file, with the same output"})
+    private Decoder decoder = Decoder.BIOJAVA;
+
+    @CommandLine.Option(names = {"--trim"},
+            description = {"How the low quality ends of the reads are cut off, one of ${COMPLETION-CANDIDATES}",
+                           "NONE (default) keeps the whole read, MOTT keeps the part with the best score against "
+                                   + "--trim-error-limit, SLIDING_WINDOW the part from the first to the last "
+                                   + "window of --trim-window bases with an average quality of at least "
+                                   + "--trim-quality"})
+    private QualityTrimmer.Method trimMethod = QualityTrimmer.Method.NONE;
+
+    @CommandLine.Option(names = {"--trim-error-limit"},
+            description = {"Error probability of a base worth keeping for MOTT trimming, value should be above 0 "
+                                   + "and below 1, default ${DEFAULT-VALUE}"})
+    private double trimErrorLimit = 0.05;
+
+    @CommandLine.Option(names = {"--trim-window"},
+            description = {"Number of bases of a window for SLIDING_WINDOW trimming, value should be at least 1, "
+                                   + "default ${DEFAULT-VALUE}"})
+    private int trimWindow = 10;
+
+    @CommandLine.Option(names = {"--trim-quality"},
+            description = {"Minimum average quality of a window for SLIDING_WINDOW trimming, default "
+                                   + "${DEFAULT-VALUE}"})
+    private int trimQuality = 20;
+
+    @CommandLine.Option(names = {"--min-length"},
+            description = {"Reads shorter than this after trimming are dropped, default ${DEFAULT-VALUE}",
+                           "Reads trimmed to nothing are always dropped"})
+    private int minLength = 0;
+
+    @CommandLine.Option(names = {"--merge-order"},
+            description = {"Order of the records in the merged file, one of ${COMPLETION-CANDIDATES}",
+                           "COMPLETION (default) writes records as they are converted, FILE_NAME by the path of "
+                                   + "their input file, the same in every run"})
+    private MergeOrder mergeOrder = MergeOrder.COMPLETION;
+
+    enum Decoder {
+        BIOJAVA,
+        MAPPED
+    }
+
+    enum MergeOrder {
+        COMPLETION,
+        FILE_NAME
+    }
+
+    enum Conversion {
+        CONVERTED,
+        /** shorter than the minimum length after trimming */
+        DROPPED,
+        FAILED
+    }
+
     @Override
     public void execute() throws ToolExecutionException {
         validateInput();
 
-        final Map<String, String> convertedSeqMap;
         try {
-            convertedSeqMap = convertSequence(inputDir.toPath(),
-                                              inputFileType.getTypeString(),
-                                              outputFileType.getTypeString());
-        } catch (IOException e) {
+            convertSequences(inputDir.toPath(), outputDir.toPath(), inputFileType.getTypeString(),
+                             outputFileType.getTypeString(), outputFileType == FileType.FASTQ);
+        } catch (IOException | InterruptedException e) {
             throw new ToolExecutionException("Failed to execute tool", e);
         }
-
-        writeOutput(outputDir.toPath(), convertedSeqMap, createSingleFile, outputFileType.getTypeString());
     }
 
     private void validateInput() {
@@ -72,79 +147,215 @@ public class FileConverterTool implements BaseTool {
         final Path outputDirPath = outputDir.toPath();
 
         ValidationUtil.validateDir(spec, inputDirPath, outputDirPath);
+
+        if (parallelism < 1) {
+            throw new CommandLine.ParameterException(spec.commandLine(), "Parallelism should be at least 1");
+        }
+
+        if (trimErrorLimit <= 0 || trimErrorLimit >= 1) {
+            throw new CommandLine.ParameterException(spec.commandLine(),
+                                                     "Trim error limit should be above 0 and below 1");
+        }
+
+        if (trimWindow < 1) {
+            throw new CommandLine.ParameterException(spec.commandLine(), "Trim window should be at least 1");
+        }
+
+        if (minLength < 0) {
+            throw new CommandLine.ParameterException(spec.commandLine(), "Min length should be at least 0");
+        }
     }
 
-    private static void writeOutput(final Path outputDirPath, final Map<String, String> convertedSeqMap,
-                                    final boolean createSingleFile, final String outputFileType) throws ToolExecutionException {
+    /**
+     * Converts a single file, trimmed to its good quality part, and writes it to its own output file or appends it
+     * to the merged file. A failure to convert is returned, a failure to write is thrown instead.
+     */
+    private static class SequenceFileWorker implements Callable<Conversion> {
+        private final File inputFile;
+        private final String inputFileType;
+        private final File outputFile;
+        private final MergedFileWriter mergedFileWriter;
+        private final int index;
+        private final Decoder decoder;
+        private final QualityTrimmer trimmer;
+        private final int minLength;
+        private final boolean fastq;
+
+        public SequenceFileWorker(final File inputFile, final String inputFileType, final File outputFile,
+                                  final MergedFileWriter mergedFileWriter, final int index, final Decoder decoder,
+                                  final QualityTrimmer trimmer, final int minLength, final boolean fastq) {
+            this.inputFile = inputFile;
+            this.inputFileType = inputFileType;
+            this.outputFile = outputFile;
+            this.mergedFileWriter = mergedFileWriter;
+            this.index = index;
+            this.decoder = decoder;
+            this.trimmer = trimmer;
+            this.minLength = minLength;
+            this.fastq = fastq;
+        }
 
-        final File outputDir = outputDirPath.toFile();
+        @Override
+        public Conversion call() throws ToolExecutionException, InterruptedException {
+            final String inputFileName = inputFile.getName();
+            log.info("Converting input file - {}", inputFileName);
 
-        if (createSingleFile) {
-            final File outputFile = new File(outputDir, "singleMergedFile" + outputFileType);
+            Conversion conversion;
+            String sequence = null;
             try {
-                FileUtils.writeLines(outputFile, convertedSeqMap.values());
-            } catch (IOException e) {
-                log.error("Failed to create merged file, please retry");
-                throw new ToolExecutionException("Failed to create file", e);
+                final SequenceRead read = trimmer.trim(readSequence(inputFile, inputFileName.replace(inputFileType, ""),
+                                                                    decoder, trimmer.isEnabled() || fastq));
+                if (read.length() < minLength) {
+                    log.info("Dropped input file - {}, {} bases after trimming", inputFileName, read.length());
+                    conversion = Conversion.DROPPED;
+                } else {
+                    sequence = fastq ? convertToFastq(read) : convertToFasta(read);
+                    conversion = Conversion.CONVERTED;
+                }
+            } catch (Throwable e) {
+                log.error("Failed to convert input file - {}, reason - {}", inputFileName, e.getMessage());
+                conversion = Conversion.FAILED;
             }
 
-            log.info("Successfully created single output file");
-        } else {
-            for (Map.Entry<String, String> entry : convertedSeqMap.entrySet()) {
-                String outputFileName = entry.getKey();
-                String sequence = entry.getValue();
-                final File outputFile = new File(outputDir, outputFileName);
+            if (mergedFileWriter != null) {
+                try {
+                    // files without a record are added too, ordered records wait for every index before them;
+                    // FASTQ readers take no blank lines between records
+                    mergedFileWriter.add(index, sequence == null || fastq ? sequence
+                                                                          : sequence + System.lineSeparator());
+                } catch (IOException e) {
+                    log.error("Failed to create merged file, please retry");
+                    throw new ToolExecutionException("Failed to create file", e);
+                }
+            } else if (sequence != null) {
                 try {
                     FileUtils.writeStringToFile(outputFile, sequence, StandardCharsets.UTF_8.name());
                 } catch (IOException e) {
-                    log.error("Failed to create output file - {}", outputFileName);
+                    log.error("Failed to create output file - {}", outputFile.getName());
                     throw new ToolExecutionException("Failed to create file", e);
                 }
             }
 
-            log.info("Successfully created all output files");
+            if (conversion == Conversion.CONVERTED) {
+                log.info("Successfully converted input file - {}", inputFileName);
+            }
+            return conversion;
         }
     }
 
     /**
-     * Returns Map of outputFileName to convertedSeq
+     * Reads the bases called, and their quality values if {@code withQualityValues} is set.
      */
-    private static Map<String, String> convertSequence(final Path inputDirPath, final String inputFileType,
-                                                       final String outputFileType) throws IOException, ToolExecutionException {
+    private static SequenceRead readSequence(final File inputFile, final String name, final Decoder decoder,
+                                             final boolean withQualityValues) throws Exception {
+        if (decoder == Decoder.MAPPED) {
+            final AbifReader abifReader = new AbifReader(inputFile.toPath());
+            return new SequenceRead(name, abifReader.getBaseCalls(),
+                                    withQualityValues ? abifReader.getQualityValues() : null);
+        }
 
-        final Map<String, String> convertedSeqMap = new HashMap<>();
+        final ABITrace abiTrace = new ABITrace(inputFile);
+        final AbstractSequence<NucleotideCompound> abstractSeq = abiTrace.getSequence();
+        byte[] qualityValues = null;
+        if (withQualityValues) {
+            final int[] qCalls = abiTrace.getQcalls();
+            qualityValues = new byte[qCalls.length];
+            for (int i = 0; i < qCalls.length; i++) {
+                qualityValues[i] = (byte) qCalls[i];
+            }
+        }
+        return new SequenceRead(name, abstractSeq.getSequenceAsString(), qualityValues);
+    }
 
-        int totalCount = 0;
-        for (final File inputFile : FileUtils.listFiles(inputDirPath.toFile(), TrueFileFilter.INSTANCE, null)) {
-            final String inputFileName = inputFile.getName();
-            final String inputFileNameWithoutExtension = inputFileName.replace(inputFileType, "");
-            if (inputFileName.endsWith(inputFileType)) {
-                log.info("Converting input file - {}", inputFileName);
+    /**
+     * A FASTQ record, quality values are written with an offset of 33.
+     */
+    private static String convertToFastq(final SequenceRead read) {
+        final byte[] qualityValues = read.getQualityValues();
+        final StringBuilder record = new StringBuilder(read.length() * 2 + read.getName().length() + 8);
+        record.append('@').append(read.getName()).append('\n').append(read.getBases()).append("\n+\n");
+        for (final byte qualityValue : qualityValues) {
+            // 93 is the highest quality with a printable character
+            record.append((char) (Math.max(0, Math.min(93, qualityValue)) + 33));
+        }
+        return record.append('\n').toString();
+    }
 
-                final String outputFileName = inputFileName.replace(inputFileType, outputFileType);
+    private static String convertToFasta(final SequenceRead read) throws Exception {
+        final AmbiguityDNACompoundSet ambiguityDNACompoundSet = AmbiguityDNACompoundSet.getDNACompoundSet();
+        final DNASequence dnaSequence = new DNASequence(read.getBases(), ambiguityDNACompoundSet);
+        dnaSequence.setOriginalHeader(read.getName());
 
-                try {
-                    ABITrace abiTrace = new ABITrace(inputFile);
-                    final AbstractSequence<NucleotideCompound> abstractSeq = abiTrace.getSequence();
-                    final AmbiguityDNACompoundSet ambiguityDNACompoundSet = AmbiguityDNACompoundSet.getDNACompoundSet();
-                    final DNASequence dnaSequence = new DNASequence(abstractSeq.getSequenceAsString(), ambiguityDNACompoundSet);
-                    dnaSequence.setOriginalHeader(inputFileNameWithoutExtension);
-
-                    final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                    FastaWriterHelper.writeNucleotideSequence(baos, Collections.singleton(dnaSequence));
-
-                    convertedSeqMap.put(outputFileName, baos.toString("UTF-8"));
-
-                    log.info("Successfully converted input file - {}", inputFileName);
-                } catch (Throwable e) {
-                    log.error("Failed to convert input file - {}, reason - {}", inputFile.getName(), e.getMessage());
-                } finally {
-                    ++totalCount;
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        FastaWriterHelper.writeNucleotideSequence(baos, Collections.singleton(dnaSequence));
+        return baos.toString("UTF-8");
+    }
+
+    /**
+     * Converts the files on {@code parallelism} threads, each output is written as soon as its file is converted
+     * instead of collecting all of them first.
+     */
+    private void convertSequences(final Path inputDirPath, final Path outputDirPath, final String inputFileType,
+                                  final String outputFileType, final boolean fastq)
+            throws IOException, InterruptedException, ToolExecutionException {
+
+        final File mergedFile = new File(outputDirPath.toFile(), "singleMergedFile" + outputFileType);
+
+        final QualityTrimmer trimmer = new QualityTrimmer(trimMethod, trimErrorLimit, trimWindow, trimQuality);
+        // an empty record would still be written, and sent on to IMGT
+        final int minReadLength = trimmer.isEnabled() ? Math.max(1, minLength) : minLength;
+        final ExecutorService executorService = Executors.newFixedThreadPool(parallelism);
+        // a few records per thread keep the threads busy while a batch is written
+        final boolean ordered = mergeOrder == MergeOrder.FILE_NAME;
+        try (final MergedFileWriter mergedFileWriter = createSingleFile
+                                                               ? new MergedFileWriter(mergedFile.toPath(),
+                                                                                      parallelism * 16, ordered)
+                                                               : null) {
+            // files are found, and submitted, in the merge order, so a merged record never waits on a file not
+            // started yet
+            final List<Future<Conversion>> futures = new ArrayList<>();
+            for (final InputDiscovery.InputFile inputFile
+                    : InputDiscovery.of(inputDirPath, "*" + inputFileType, recursive).findFiles()) {
+                final File outputFile = new File(outputDirPath.toFile(),
+                                                 inputFile.getName().replace(inputFileType, outputFileType));
+                if (mergedFileWriter == null) {
+                    Files.createDirectories(outputFile.getParentFile().toPath());
+                }
+                futures.add(executorService.submit(new SequenceFileWorker(inputFile.getPath().toFile(), inputFileType,
+                                                                          outputFile, mergedFileWriter, futures.size(),
+                                                                          decoder, trimmer, minReadLength,
+                                                                          fastq)));
+            }
+
+            int convertedCount = 0;
+            int droppedCount = 0;
+            for (final Future<Conversion> f : futures) {
+                final Conversion conversion = f.get();
+                if (conversion == Conversion.CONVERTED) {
+                    ++convertedCount;
+                } else if (conversion == Conversion.DROPPED) {
+                    ++droppedCount;
                 }
             }
+
+            log.info("Successfully converted {}/{} files", convertedCount, futures.size());
+            if (droppedCount > 0) {
+                log.info("Dropped {} reads shorter than {} bases", droppedCount, minReadLength);
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ToolExecutionException) {
+                throw (ToolExecutionException) e.getCause();
+            }
+            throw new ToolExecutionException("Failed to execute tool", e.getCause());
+        } finally {
+            executorService.shutdownNow();
+            executorService.awaitTermination(10, TimeUnit.SECONDS);
         }
 
-        log.info("Successfully converted {}/{} files", convertedSeqMap.size(), totalCount);
-        return convertedSeqMap;
+        if (createSingleFile) {
+            log.info("Successfully created single output file");
+        } else {
+            log.info("Successfully created all output files");
+        }
     }
 }
@@ -11,11 +11,10 @@ import java.util.List;
 import java.util.Map;
 
 import com.ajay.bio.exception.ToolExecutionException;
+import com.ajay.bio.util.InputDiscovery;
 import com.ajay.bio.util.ValidationUtil;
 import com.google.common.collect.Lists;
 import lombok.extern.log4j.Log4j2;
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.filefilter.TrueFileFilter;
 import org.apache.poi.hssf.usermodel.HSSFWorkbook;
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.CellType;
@@ -44,6 +43,10 @@ public class IGCategorisationTool implements BaseTool {
             description = "Create IGH, IGK, IGL sub-category files")
     private boolean createIGSubCategories;
 
+    @CommandLine.Option(names = {"--recursive"},
+            description = "Also read the Excel files of the sub directories of the input directory")
+    private boolean recursive;
+
     private static final String COMBINED_IG_FILE_NAME = "IG_Combined.xls";
     private static final String COMBINED_IG_FILE_IGH_SHEET_NAME = "IGH";
     private static final String COMBINED_IG_FILE_IGK_SHEET_NAME = "IGK";
@@ -87,35 +90,35 @@ public class IGCategorisationTool implements BaseTool {
             addIGHeaderRow(iglSheet);
             addIGHeaderRow(unknownSheet);
 
-            for (final File inputFile : FileUtils.listFiles(imgtOutputDir.toFile(), TrueFileFilter.INSTANCE, null)) {
-                if (inputFile.getName().endsWith(".xls")) {
-
-                    log.info("Processing Excel File - {}", inputFile.getName());
-                    try {
-                        final Workbook workbook = openExcelWorkbook(inputFile.toPath());
-                        final Sheet aaSequenceSheet = workbook.getSheet("AA-sequences");
-                        final String vGene = getCellValueOrDefault(aaSequenceSheet.getRow(1).getCell(3),
-                                                                   "EmptyVGene");
-
-                        log.debug("Found VGene - {} for sequence - {}", vGene, inputFile.getName());
-                        if (vGene.contains("IGH")) {
-                            updateSheetWithInfo(ighSheet, aaSequenceSheet, workbook.getSheet("Nt-sequences"),
-                                                workbook.getSheet("Summary"));
-                        } else if (vGene.contains("IGK")) {
-                            updateSheetWithInfo(igkSheet, aaSequenceSheet, workbook.getSheet("Nt-sequences"),
-                                                workbook.getSheet("Summary"));
-                        } else if (vGene.contains("IGL")) {
-                            updateSheetWithInfo(iglSheet, aaSequenceSheet, workbook.getSheet("Nt-sequences"),
-                                                workbook.getSheet("Summary"));
-                        } else {
-                            log.error("Invalid VGene found for sequence - {}, vGene - {}", inputFile.getName(), vGene);
-                            updateSheetWithInfo(unknownSheet, aaSequenceSheet, workbook.getSheet("Nt-sequences"),
-                                                workbook.getSheet("Summary"));
-                        }
-                    } catch (IOException e) {
-                        log.debug("IO Exception while processing file", e);
-                        throw new ToolExecutionException("Input/Output Error");
+            for (final InputDiscovery.InputFile excelFile
+                    : InputDiscovery.of(imgtOutputDir, "*.xls", recursive).findFiles()) {
+                final File inputFile = excelFile.getPath().toFile();
+
+                log.info("Processing Excel File - {}", inputFile.getName());
+                try {
+                    final Workbook workbook = openExcelWorkbook(inputFile.toPath());
+                    final Sheet aaSequenceSheet = workbook.getSheet("AA-sequences");
+                    final String vGene = getCellValueOrDefault(aaSequenceSheet.getRow(1).getCell(3),
+                                                               "EmptyVGene");
+
+                    log.debug("Found VGene - {} for sequence - {}", vGene, inputFile.getName());
+                    if (vGene.contains("IGH")) {
+                        updateSheetWithInfo(ighSheet, aaSequenceSheet, workbook.getSheet("Nt-sequences"),
+                                            workbook.getSheet("Summary"));
+                    } else if (vGene.contains("IGK")) {
+                        updateSheetWithInfo(igkSheet, aaSequenceSheet, workbook.getSheet("Nt-sequences"),
+                                            workbook.getSheet("Summary"));
+                    } else if (vGene.contains("IGL")) {
+                        updateSheetWithInfo(iglSheet, aaSequenceSheet, workbook.getSheet("Nt-sequences"),
+                                            workbook.getSheet("Summary"));
+                    } else {
+                        log.error("Invalid VGene found for sequence - {}, vGene - {}", inputFile.getName(), vGene);
+                        updateSheetWithInfo(unknownSheet, aaSequenceSheet, workbook.getSheet("Nt-sequences"),
+                                            workbook.getSheet("Summary"));
                     }
+                } catch (IOException e) {
+                    log.debug("IO Exception while processing file", e);
+                    throw new ToolExecutionException("Input/Output Error");
                 }
             }
 
@@ -1,30 +1,39 @@
 package com.ajay.bio.tool.impl;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Stream;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import com.ajay.bio.client.AsyncClient;
 import com.ajay.bio.client.IMGTClient;
 import com.ajay.bio.exception.ToolExecutionException;
 import com.ajay.bio.exception.ValidationException;
+import com.ajay.bio.util.ConcurrencyLimiter;
+import com.ajay.bio.util.ImgtWorkbookSplitter;
+import com.ajay.bio.util.InputDiscovery;
 import com.ajay.bio.util.ValidationUtil;
 import lombok.extern.log4j.Log4j2;
 import org.apache.commons.io.FileUtils;
@@ -50,10 +59,43 @@ public class IMGTAnalysisTool implements BaseTool {
     private File outputDir;
 
     @CommandLine.Option(names = {"--parallelism"},
-            description = {"Number of tasks to execute in parallel, value should be in range [1, 10]",
+            description = {"Number of tasks to execute in parallel, value should be in range [1, 10], or [1, 50] "
+                                   + "if adaptive, or [1, " + AsyncClient.MAX_CONNECTIONS + "] if async",
                            "More tasks in parallel would required more network bandwidth"})
     private int parallelism = 1;
 
+    @CommandLine.Option(names = {"--adaptive"},
+            description = {"Adapt the number of requests in flight to how fast IMGT responds, up to the parallelism",
+                           "Fewer requests are sent when responses slow down or fail, more when they are fast"})
+    private boolean adaptive;
+
+    @CommandLine.Option(names = {"--async"},
+            description = {"Send requests without a thread each, responses are streamed to disk as they arrive",
+                           "Parallelism may then be up to " + AsyncClient.MAX_CONNECTIONS + " requests in flight"})
+    private boolean async;
+
+    @CommandLine.Option(names = {"--max-requests-per-second"},
+            description = {"Most requests sent to IMGT in a second, retries included",
+                           "0 for no limit"})
+    private double maxRequestsPerSecond;
+
+    @CommandLine.Option(names = {"--batch-size"},
+            description = {"Most sequences submitted to IMGT in a single request, value should be in range [1, 50]",
+                           "Whole FASTA files are batched until their sequences add up to this, the result of a "
+                                   + "batch is split back into an Excel file per FASTA file"})
+    private int batchSize = 1;
+
+    @CommandLine.Option(names = {"--imgt-url"},
+            defaultValue = "${sys:vati.imgt.url:-" + IMGTClient.DEFAULT_BASE_URL + "}",
+            description = {"URL of the IMGT/V-QUEST analysis page, default: ${DEFAULT-VALUE}",
+                           "Set to the STUB_SERVER URL to run without network"})
+    private String imgtUrl;
+
+    @CommandLine.Option(names = {"--recursive"},
+            description = {"Also analyse the files of the sub directories of the input directory",
+                           "Analyses are saved in the same sub directories of the output directory"})
+    private boolean recursive;
+
     @Override
     public void execute() throws ToolExecutionException {
         validateInput();
@@ -66,23 +108,62 @@ public class IMGTAnalysisTool implements BaseTool {
         }
     }
 
-    private static class ImgtExcelFileWorker implements Callable<Boolean> {
+    /**
+     * A FASTA file to analyse and the Excel file its analysis is saved to.
+     */
+    private static class SequenceFile {
+        private final InputDiscovery.InputFile inputFile;
         private final String fastaSequence;
         private final Path excelFilePath;
+        // sequences in the FASTA file, each has its row in the analysis
+        private final int sequenceCount;
 
-        public ImgtExcelFileWorker(final String fastaSequence, final Path excelFilePath) {
+        SequenceFile(final InputDiscovery.InputFile inputFile, final String fastaSequence, final Path excelFilePath) {
+            this.inputFile = inputFile;
             this.fastaSequence = fastaSequence;
             this.excelFilePath = excelFilePath;
+            this.sequenceCount = ImgtWorkbookSplitter.countSequences(fastaSequence);
+        }
+
+        String getSequenceName() {
+            return FilenameUtils.removeExtension(excelFilePath.toFile().getName());
+        }
+    }
+
+    /**
+     * Analyses a batch of FASTA files with a single request, returns the number of files whose analysis was saved.
+     */
+    private static class ImgtExcelFileWorker implements Callable<Integer> {
+        private static final byte[] OLE2_HEADER = {
+                (byte) 0xD0, (byte) 0xCF, (byte) 0x11, (byte) 0xE0, (byte) 0xA1, (byte) 0xB1, (byte) 0x1A, (byte) 0xE1
+        };
+
+        private final List<SequenceFile> sequenceFiles;
+        private final ConcurrencyLimiter limiter;
+
+        public ImgtExcelFileWorker(final List<SequenceFile> sequenceFiles, final ConcurrencyLimiter limiter) {
+            this.sequenceFiles = sequenceFiles;
+            this.limiter = limiter;
         }
 
         @Override
-        public Boolean call() {
-            final String sequenceName = FilenameUtils.removeExtension(excelFilePath.toFile().getName());
-            log.info("Processing sequence - {}", sequenceName);
+        public Integer call() {
+            final String sequenceName = sequenceFiles.get(0).getSequenceName();
+            logProcessing(sequenceFiles);
             for (int i = 0; i < 3; i++) {
                 try {
-                    createImgtExcelFile(fastaSequence, excelFilePath);
-                    return true;
+                    final long startNanos = limiter.acquire();
+                    final Path responseFilePath = newResponseFilePath(sequenceFiles);
+                    try {
+                        log.debug("Invoking IMGT website..");
+                        IMGTClient.saveIMGTAnalysisResponse(getFastaSequences(sequenceFiles), responseFilePath);
+                        log.debug("Received response from IMGT website");
+                    } catch (Exception e) {
+                        limiter.release(startNanos, ConcurrencyLimiter.Outcome.FAILURE);
+                        Files.deleteIfExists(responseFilePath);
+                        throw e;
+                    }
+                    return saveResponse(sequenceFiles, responseFilePath, startNanos, limiter);
                 } catch (Exception e) {
                     log.debug("IMGT Analysis Failure - ", e);
                     log.warn("Retrying IMGT analysis for sequence - {}", sequenceName);
@@ -90,45 +171,231 @@ public class IMGTAnalysisTool implements BaseTool {
             }
 
             log.error("IMGT Analysis FAILED for sequence - {}", sequenceName);
-            return false;
+            return 0;
         }
 
-        private static void createImgtExcelFile(final String fastaSequence, final Path imgtExcelFilePath) throws Exception {
-            log.debug("Invoking IMGT website..");
-            final byte[] response = IMGTClient.getIMGTAnalysisResponse(fastaSequence);
-            log.debug("Received response from IMGT website");
-            FileUtils.writeByteArrayToFile(imgtExcelFilePath.toFile(), response);
-            if (!isValidResponse(imgtExcelFilePath)) {
-                final String errorHtml = FileUtils.readFileToString(imgtExcelFilePath.toFile(), StandardCharsets.UTF_8);
+        private static void logProcessing(final List<SequenceFile> sequenceFiles) {
+            final String sequenceName = sequenceFiles.get(0).getSequenceName();
+            if (sequenceFiles.size() == 1) {
+                log.info("Processing sequence - {}", sequenceName);
+            } else {
+                log.info("Processing batch of {} files starting at sequence - {}", sequenceFiles.size(), sequenceName);
+            }
+        }
 
-                final Path errorDirPath = Paths.get(imgtExcelFilePath.getParent().toAbsolutePath().toString(), "Error");
-                errorDirPath.toFile().mkdir();
+        private static String getFastaSequences(final List<SequenceFile> sequenceFiles) {
+            if (sequenceFiles.size() == 1) {
+                return sequenceFiles.get(0).fastaSequence;
+            }
 
-                final String errorFileName = FilenameUtils.removeExtension(imgtExcelFilePath.toFile().getName());
-                final Path errorFile = Paths.get(errorDirPath.toAbsolutePath().toString(), errorFileName + ".html");
-                FileUtils.writeStringToFile(errorFile.toFile(), errorHtml, StandardCharsets.UTF_8);
+            final StringBuilder fastaSequences = new StringBuilder();
+            for (final SequenceFile sequenceFile : sequenceFiles) {
+                fastaSequences.append(sequenceFile.fastaSequence);
+                if (!sequenceFile.fastaSequence.endsWith("\n")) {
+                    fastaSequences.append('\n');
+                }
+            }
+            return fastaSequences.toString();
+        }
 
-                FileUtils.delete(imgtExcelFilePath.toFile());
+        /**
+         * File the response is streamed to, next to the Excel file of the first FASTA file. An Excel file is only
+         * ever renamed into place complete, as an existing one marks its FASTA file as analysed. Each attempt gets a
+         * name of its own, so what an earlier attempt or a killed run left behind never ends up in a response.
+         */
+        private static Path newResponseFilePath(final List<SequenceFile> sequenceFiles) {
+            return Paths.get(sequenceFiles.get(0).excelFilePath + "." + UUID.randomUUID() + ".part");
+        }
 
-                log.error("Error response from IMGT for sequence - {}", errorFileName);
-            } else {
-                log.info("Saved IMGT analysis to file - {}", imgtExcelFilePath.getFileName());
+        /**
+         * Saves the analysis of each file of the batch from the response file, or the error page in their place,
+         * and returns the number of analyses saved. The request is ended with the limiter as soon as the response
+         * is known to be an analysis or an error page, or as a failure if the response cannot be read. The response
+         * file is gone once this returns.
+         */
+        private static int saveResponse(final List<SequenceFile> sequenceFiles, final Path responseFilePath,
+                                        final long startNanos, final ConcurrencyLimiter limiter) throws IOException {
+            try {
+                return saveResponseFile(sequenceFiles, responseFilePath, startNanos, limiter);
+            } finally {
+                Files.deleteIfExists(responseFilePath);
+            }
+        }
+
+        private static int saveResponseFile(final List<SequenceFile> sequenceFiles, final Path responseFilePath,
+                                            final long startNanos, final ConcurrencyLimiter limiter)
+                throws IOException {
+            final Path excelFilePath = sequenceFiles.get(0).excelFilePath;
+            if (sequenceFiles.size() == 1) {
+                final boolean validResponse;
+                ConcurrencyLimiter.Outcome outcome = ConcurrencyLimiter.Outcome.FAILURE;
+                try {
+                    validResponse = isExcelFile(responseFilePath);
+                    outcome = validResponse ? ConcurrencyLimiter.Outcome.SUCCESS
+                                            : ConcurrencyLimiter.Outcome.ERROR_RESPONSE;
+                } finally {
+                    limiter.release(startNanos, outcome);
+                }
+                if (!validResponse) {
+                    saveErrorResponse(responseFilePath, excelFilePath);
+                    return 0;
+                }
+
+                Files.move(responseFilePath, excelFilePath, StandardCopyOption.ATOMIC_MOVE,
+                           StandardCopyOption.REPLACE_EXISTING);
+                sequenceFiles.get(0).inputFile.markProcessed(null);
+                log.info("Saved IMGT analysis to file - {}", excelFilePath.getFileName());
+                return 1;
+            }
+
+            final Workbook batchWorkbook;
+            ConcurrencyLimiter.Outcome outcome = ConcurrencyLimiter.Outcome.FAILURE;
+            try {
+                batchWorkbook = isExcelFile(responseFilePath) ? readWorkbook(responseFilePath) : null;
+                outcome = batchWorkbook == null ? ConcurrencyLimiter.Outcome.ERROR_RESPONSE
+                                                : ConcurrencyLimiter.Outcome.SUCCESS;
+            } finally {
+                limiter.release(startNanos, outcome);
+            }
+            if (batchWorkbook == null) {
+                saveErrorResponse(responseFilePath, excelFilePath);
+                return 0;
             }
+
+            try {
+                return saveBatchAnalyses(sequenceFiles, batchWorkbook);
+            } finally {
+                batchWorkbook.close();
+            }
+        }
+
+        /**
+         * Saves the rows of each file to its own Excel file, as if it was submitted alone.
+         */
+        private static int saveBatchAnalyses(final List<SequenceFile> sequenceFiles, final Workbook batchWorkbook)
+                throws IOException {
+            int savedCount = 0;
+            int firstSequenceNumber = 1;
+            for (final SequenceFile sequenceFile : sequenceFiles) {
+                final int lastSequenceNumber = firstSequenceNumber + sequenceFile.sequenceCount - 1;
+                final Workbook workbook = ImgtWorkbookSplitter.extract(batchWorkbook, firstSequenceNumber,
+                                                                       lastSequenceNumber);
+                if (workbook == null) {
+                    log.error("No IMGT analysis in batch response for sequence - {}", sequenceFile.getSequenceName());
+                } else {
+                    try {
+                        writeWorkbook(workbook, sequenceFile.excelFilePath);
+                    } finally {
+                        workbook.close();
+                    }
+                    sequenceFile.inputFile.markProcessed(null);
+                    ++savedCount;
+                    log.info("Saved IMGT analysis to file - {}", sequenceFile.excelFilePath.getFileName());
+                }
+                firstSequenceNumber = lastSequenceNumber + 1;
+            }
+            return savedCount;
         }
 
-        private static boolean isValidResponse(final Path imgtExcelFilePath) {
+        /**
+         * Writes {@code workbook} next to {@code excelFilePath} and renames it into place once complete.
+         */
+        private static void writeWorkbook(final Workbook workbook, final Path excelFilePath) throws IOException {
+            final Path tempFilePath = Paths.get(excelFilePath + ".tmp");
             try {
-                final Workbook workbook = openExcelWorkbook(imgtExcelFilePath);
-                workbook.close();
-                return true;
+                try (final OutputStream outputStream = new FileOutputStream(tempFilePath.toFile())) {
+                    workbook.write(outputStream);
+                }
+                Files.move(tempFilePath, excelFilePath, StandardCopyOption.ATOMIC_MOVE,
+                           StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(tempFilePath);
+            }
+        }
+
+        /**
+         * Moves the error page of a response to the Error directory, named after {@code imgtExcelFilePath}.
+         */
+        private static void saveErrorResponse(final Path responseFilePath, final Path imgtExcelFilePath)
+                throws IOException {
+            final Path errorDirPath = Paths.get(imgtExcelFilePath.getParent().toAbsolutePath().toString(), "Error");
+            errorDirPath.toFile().mkdir();
+
+            final String errorFileName = FilenameUtils.removeExtension(imgtExcelFilePath.toFile().getName());
+            final Path errorFile = Paths.get(errorDirPath.toAbsolutePath().toString(), errorFileName + ".html");
+            Files.move(responseFilePath, errorFile, StandardCopyOption.REPLACE_EXISTING);
+
+            log.error("Error response from IMGT for sequence - {}", errorFileName);
+        }
+
+        /**
+         * Returns the workbook of a response, or null if it cannot be read.
+         */
+        private static Workbook readWorkbook(final Path responseFilePath) {
+            try (final InputStream inputStream = Files.newInputStream(responseFilePath)) {
+                return new HSSFWorkbook(inputStream);
             } catch (Exception e) {
-                return false;
+                return null;
+            }
+        }
+
+        /**
+         * Tells an Excel file from an error page by the OLE2 header Excel 97 files start with, without reading
+         * the rest of the file.
+         */
+        private static boolean isExcelFile(final Path responseFilePath) throws IOException {
+            final byte[] header = new byte[OLE2_HEADER.length];
+            try (final InputStream inputStream = Files.newInputStream(responseFilePath)) {
+                return IOUtils.read(inputStream, header) == header.length && Arrays.equals(header, OLE2_HEADER);
+            }
+        }
+    }
+
+    /**
+     * A batch of FASTA files analysed without blocking, sent again when its request fails.
+     */
+    private static class ImgtAsyncRequest {
+        private final List<SequenceFile> sequenceFiles;
+        private int attempt;
+
+        ImgtAsyncRequest(final List<SequenceFile> sequenceFiles) {
+            this.sequenceFiles = sequenceFiles;
+        }
+
+        /**
+         * Sends the request once started by the limiter, the response is saved on {@code executorService}.
+         * Completes with the number of analyses saved, or fails if the request failed.
+         */
+        CompletableFuture<Integer> send(final long startNanos, final ConcurrencyLimiter limiter,
+                                        final ExecutorService executorService) {
+            ++attempt;
+            if (attempt == 1) {
+                ImgtExcelFileWorker.logProcessing(sequenceFiles);
             }
+
+            final CompletableFuture<Path> response = IMGTClient.saveIMGTAnalysisResponseAsync(
+                    ImgtExcelFileWorker.getFastaSequences(sequenceFiles),
+                    ImgtExcelFileWorker.newResponseFilePath(sequenceFiles));
+            response.whenComplete((responseFilePath, e) -> {
+                if (e != null) {
+                    limiter.release(startNanos, ConcurrencyLimiter.Outcome.FAILURE);
+                }
+            });
+            return response.thenApplyAsync(responseFilePath -> {
+                try {
+                    return ImgtExcelFileWorker.saveResponse(sequenceFiles, responseFilePath, startNanos, limiter);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, executorService);
+        }
+
+        boolean canRetry() {
+            return attempt < 3;
         }
 
-        private static Workbook openExcelWorkbook(final Path igFile) throws IOException {
-            //return WorkbookFactory.create(igFile.toFile());
-            return new HSSFWorkbook(new FileInputStream(igFile.toFile()));
+        String getSequenceName() {
+            return sequenceFiles.get(0).getSequenceName();
         }
     }
 
@@ -138,88 +405,188 @@ public class IMGTAnalysisTool implements BaseTool {
         imgOutputPath.toFile().mkdir();
 
         log.info("IMGT Analysis will be saved at - {}", imgOutputPath.toAbsolutePath());
+        IMGTClient.setBaseUrl(imgtUrl);
 
-        final Set<Path> fastaFilesToProcess = getFilesToProcess(inputDir.toPath(), imgOutputPath);
-        analyzeSequences(fastaFilesToProcess, imgOutputPath);
+        // the manifest tells FASTA files changed since their analysis from those analysed already
+        final InputDiscovery inputDiscovery = InputDiscovery.withManifest(inputDir.toPath(), "*.fasta", recursive,
+                                                                          imgOutputPath);
+        final List<InputDiscovery.InputFile> fastaFilesToProcess = getFilesToProcess(inputDiscovery, imgOutputPath);
+        try {
+            analyzeSequences(fastaFilesToProcess, imgOutputPath);
+        } finally {
+            inputDiscovery.saveManifest();
+        }
     }
 
-    private void analyzeSequences(final Set<Path> filesToProcess, final Path imgOutputPath)
+    private void analyzeSequences(final List<InputDiscovery.InputFile> filesToProcess, final Path imgOutputPath)
             throws InterruptedException, ExecutionException, ToolExecutionException {
-        final ExecutorService executorService = Executors.newFixedThreadPool(parallelism);
-
-        final List<ImgtExcelFileWorker> workers = new ArrayList<>();
-
-        for (Path inputFile : filesToProcess) {
-            if (inputFile.getFileName().toString().endsWith(".fasta")) {
-                final String inputFileName = FilenameUtils.removeExtension(inputFile.getFileName().toString());
-                try {
-                    final String fastaSequence = FileUtils.readFileToString(inputFile.toFile(), StandardCharsets.UTF_8);
-                    final Path imgtExcelFilePath = Paths.get(imgOutputPath.toAbsolutePath().toString(),
-                                                             inputFileName + ".xls");
-
-                    workers.add(new ImgtExcelFileWorker(fastaSequence, imgtExcelFilePath));
-                } catch (Exception e) {
-                    log.error("Failed to process IMGT file - {}", inputFileName);
-                    throw new ToolExecutionException("Failed to process IMGT file", e);
+        // if adaptive, starts with a single request and finds how many more IMGT takes
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(adaptive ? 1 : parallelism, parallelism, adaptive,
+                                                                  maxRequestsPerSecond);
+
+        final List<List<SequenceFile>> batches = new ArrayList<>();
+        List<SequenceFile> batch = new ArrayList<>();
+        int batchSequenceCount = 0;
+        for (final InputDiscovery.InputFile inputFile : filesToProcess) {
+            final String inputFileName = FilenameUtils.removeExtension(inputFile.getName());
+            try {
+                final String fastaSequence = FileUtils.readFileToString(inputFile.getPath().toFile(),
+                                                                        StandardCharsets.UTF_8);
+                final Path imgtExcelFilePath = getImgtExcelFilePath(imgOutputPath, inputFile);
+                Files.createDirectories(imgtExcelFilePath.getParent());
+
+                // IMGT takes at most 50 sequences per request, files are never split across batches
+                final SequenceFile sequenceFile = new SequenceFile(inputFile, fastaSequence, imgtExcelFilePath);
+                if (!batch.isEmpty() && batchSequenceCount + sequenceFile.sequenceCount > batchSize) {
+                    batches.add(batch);
+                    batch = new ArrayList<>();
+                    batchSequenceCount = 0;
                 }
+                batch.add(sequenceFile);
+                batchSequenceCount += sequenceFile.sequenceCount;
+            } catch (Exception e) {
+                log.error("Failed to process IMGT file - {}", inputFileName);
+                throw new ToolExecutionException("Failed to process IMGT file", e);
             }
         }
+        if (!batch.isEmpty()) {
+            batches.add(batch);
+        }
 
-        final int totalCount = workers.size();
-        int successCount = 0;
+        final int totalCount = filesToProcess.size();
+        final int successCount;
         try {
-            final List<Future<Boolean>> futures = executorService.invokeAll(workers);
-
-            for (final Future<Boolean> f : futures) {
-                final Boolean result = f.get();
-                if (Boolean.TRUE.equals(result)) {
-                    ++successCount;
-                }
-            }
-            executorService.shutdown();
-            executorService.awaitTermination(10, TimeUnit.SECONDS);
+            successCount = async ? analyzeBatchesAsync(batches, limiter) : analyzeBatches(batches, limiter);
         } catch (InterruptedException | ExecutionException e) {
             log.error("Failed to complete IMGT analysis, please retry");
             throw e;
         } finally {
             IMGTClient.shutDown();
+            AsyncClient.shutDown();
         }
 
         log.info("IMGT Analysis Completed; {}/{} sequence succeeded", successCount, totalCount);
+        if (adaptive) {
+            log.info("Requests in flight adapted to - {}", limiter.getLimit());
+        }
     }
 
-    private Set<Path> getFilesToProcess(final Path inputDirPath, final Path imgtOutputDirPath) throws IOException {
-        final Set<String> alreadyProcessedFileNames = new HashSet<>();
-        try (final Stream<Path> fileList = Files.list(imgtOutputDirPath)) {
-            fileList.forEach(inputFile -> {
-                final String fileName = FilenameUtils.removeExtension(inputFile.toFile().getName());
-                alreadyProcessedFileNames.add(fileName);
-            });
+    /**
+     * Analyses the batches with a thread each for as long as its requests are in flight.
+     */
+    private int analyzeBatches(final List<List<SequenceFile>> batches, final ConcurrencyLimiter limiter)
+            throws InterruptedException, ExecutionException {
+        final ExecutorService executorService = Executors.newFixedThreadPool(parallelism);
+        final List<ImgtExcelFileWorker> workers = new ArrayList<>();
+        for (final List<SequenceFile> batch : batches) {
+            workers.add(new ImgtExcelFileWorker(batch, limiter));
         }
 
-        final Set<Path> filesToProcess = new HashSet<>();
-        try (final Stream<Path> fileList = Files.list(inputDirPath)) {
-            fileList.forEach(inputFile -> {
-                final String fileName = FilenameUtils.removeExtension(inputFile.toFile().getName());
-                if (alreadyProcessedFileNames.contains(fileName)) {
-                    log.info("File already processed, skipping - {}", fileName);
-                } else {
-                    filesToProcess.add(inputFile);
+        int successCount = 0;
+        try {
+            final List<Future<Integer>> futures = executorService.invokeAll(workers);
+
+            for (final Future<Integer> f : futures) {
+                successCount += f.get();
+            }
+        } finally {
+            executorService.shutdown();
+            executorService.awaitTermination(10, TimeUnit.SECONDS);
+        }
+        return successCount;
+    }
+
+    /**
+     * Analyses the batches without blocking. Requests are sent from this thread as the limiter allows, responses
+     * are streamed to disk by the IO threads of the client and saved by a thread per processor.
+     */
+    private int analyzeBatchesAsync(final List<List<SequenceFile>> batches, final ConcurrencyLimiter limiter)
+            throws InterruptedException {
+        final ExecutorService executorService = Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors());
+        // requests to send, those which failed are queued again
+        final BlockingQueue<ImgtAsyncRequest> requests = new LinkedBlockingQueue<>();
+        for (final List<SequenceFile> batch : batches) {
+            requests.add(new ImgtAsyncRequest(batch));
+        }
+
+        final CountDownLatch batchesDone = new CountDownLatch(batches.size());
+        final AtomicInteger successCount = new AtomicInteger();
+        try {
+            while (batchesDone.getCount() > 0) {
+                final ImgtAsyncRequest request = requests.poll(100, TimeUnit.MILLISECONDS);
+                if (request == null) {
+                    continue;
                 }
-            });
+
+                final long startNanos = limiter.acquire();
+                request.send(startNanos, limiter, executorService).whenComplete((savedCount, e) -> {
+                    if (e == null) {
+                        successCount.addAndGet(savedCount);
+                        batchesDone.countDown();
+                    } else if (request.canRetry()) {
+                        log.debug("IMGT Analysis Failure - ", e);
+                        log.warn("Retrying IMGT analysis for sequence - {}", request.getSequenceName());
+                        requests.add(request);
+                    } else {
+                        log.debug("IMGT Analysis Failure - ", e);
+                        log.error("IMGT Analysis FAILED for sequence - {}", request.getSequenceName());
+                        batchesDone.countDown();
+                    }
+                });
+            }
+        } finally {
+            executorService.shutdown();
+            executorService.awaitTermination(10, TimeUnit.SECONDS);
+        }
+        return successCount.get();
+    }
+
+    /**
+     * Returns the FASTA files without an analysis, or changed since they were analysed.
+     */
+    private List<InputDiscovery.InputFile> getFilesToProcess(final InputDiscovery inputDiscovery,
+                                                             final Path imgtOutputDirPath) throws IOException {
+        final List<InputDiscovery.InputFile> filesToProcess = new ArrayList<>();
+        for (final InputDiscovery.InputFile inputFile : inputDiscovery.findFiles()) {
+            final String fileName = FilenameUtils.removeExtension(inputFile.getName());
+            if (Files.exists(getImgtExcelFilePath(imgtOutputDirPath, inputFile)) && !inputFile.isChanged()) {
+                log.info("File already processed, skipping - {}", fileName);
+                // files analysed before the manifest are recorded as they are now
+                inputFile.markProcessed(null);
+            } else {
+                filesToProcess.add(inputFile);
+            }
         }
 
         return filesToProcess;
     }
 
+    private static Path getImgtExcelFilePath(final Path imgtOutputDirPath, final InputDiscovery.InputFile inputFile) {
+        return Paths.get(imgtOutputDirPath.toAbsolutePath().toString(),
+                         FilenameUtils.removeExtension(inputFile.getName()) + ".xls");
+    }
+
     private void validateInput() throws CommandLine.ParameterException {
         final Path inputDirPath = inputDir.toPath();
         final Path outputDirPath = outputDir.toPath();
 
         ValidationUtil.validateDir(spec, inputDirPath, outputDirPath);
 
-        if (parallelism < 1 || parallelism > 10) {
-            throw new CommandLine.ParameterException(spec.commandLine(), "Parallelism should be in range [0, 10]");
+        // the connection pools of the IMGT clients are limited to 50 connections, or more if async
+        final int maxParallelism = async ? AsyncClient.MAX_CONNECTIONS : adaptive ? 50 : 10;
+        if (parallelism < 1 || parallelism > maxParallelism) {
+            throw new CommandLine.ParameterException(spec.commandLine(),
+                                                     "Parallelism should be in range [1, " + maxParallelism + "]");
+        }
+
+        if (maxRequestsPerSecond < 0) {
+            throw new CommandLine.ParameterException(spec.commandLine(),
+                                                     "Max requests per second should not be negative");
+        }
+
+        if (batchSize < 1 || batchSize > 50) {
+            throw new CommandLine.ParameterException(spec.commandLine(), "Batch size should be in range [1, 50]");
         }
     }
 }
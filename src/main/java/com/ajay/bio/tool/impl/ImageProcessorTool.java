@@ -2,18 +2,37 @@ package com.ajay.bio.tool.impl;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import com.ajay.bio.exception.ToolExecutionException;
 import com.ajay.bio.exception.ValidationException;
+import com.ajay.bio.tool.VatiTool;
+import com.ajay.bio.util.DirectoryWatcher;
+import com.ajay.bio.util.ImageOutputWriter;
+import com.ajay.bio.util.ImageProcessingStrategy;
 import com.ajay.bio.util.ImageProcessingStrategyTwo;
+import com.ajay.bio.util.ImageResultIndex;
+import com.ajay.bio.util.InputDiscovery;
+import com.ajay.bio.util.MarkedImage;
+import com.ajay.bio.util.PixelMaskStorage;
+import com.ajay.bio.util.ProcessingMetrics;
+import com.ajay.bio.util.SingleThresholdStrategy;
 import com.ajay.bio.util.ValidationUtil;
 import lombok.extern.log4j.Log4j2;
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.filefilter.TrueFileFilter;
+import org.jline.terminal.Terminal;
 import picocli.CommandLine;
 
 @CommandLine.Command(name = "IMAGE_PROCESSOR", mixinStandardHelpOptions = true, version = "14-Aug-2022",
@@ -23,6 +42,9 @@ public class ImageProcessorTool implements BaseTool {
     @CommandLine.Spec
     CommandLine.Model.CommandSpec spec; // injected by picocli
 
+    @CommandLine.ParentCommand
+    private VatiTool vatiTool; // injected by picocli, its terminal takes Ctrl+C while watching
+
     @CommandLine.Option(names = {"--input-dir"}, required = true,
             description = "Directory with input files")
     private File inputDir;
@@ -31,55 +53,366 @@ public class ImageProcessorTool implements BaseTool {
             description = "Directory where output files should be saved")
     private File outputDir;
 
+    @CommandLine.Option(names = {"--strategy"},
+            description = {"Dot counting strategy, one of ${COMPLETION-CANDIDATES}",
+                           "MULTI_PASS (default) runs eight threshold passes, SINGLE_THRESHOLD a single quick pass"})
+    private Strategy strategy = Strategy.MULTI_PASS;
+
+    @CommandLine.Option(names = {"--threshold"},
+            description = {"Green level of the dots for the SINGLE_THRESHOLD strategy, default ${DEFAULT-VALUE}"})
+    private int threshold = 60;
+
+    @CommandLine.Option(names = {"--recompute"},
+            description = {"Process every file again, even those with a cached result for the same content and "
+                                   + "strategy parameters"})
+    private boolean recompute;
+
+    @CommandLine.Option(names = {"--tile-parallelism"},
+            description = {"Number of threads counting the dots of a single image, value should be at least 1",
+                           "Each image is split in tiles which are processed in parallel"})
+    private int tileParallelism = 1;
+
+    @CommandLine.Option(names = {"--component-tree"},
+            description = {"Find the islands of all threshold passes from a single sort of the pixels",
+                           "Uses more memory, --tile-parallelism is ignored"})
+    private boolean componentTree;
+
+    @CommandLine.Option(names = {"--streaming"},
+            description = {"Decode images strip by strip instead of as a whole, for images too big for the heap",
+                           "Dots are counted serially, --tile-parallelism and --component-tree are ignored"})
+    private boolean streaming;
+
+    @CommandLine.Option(names = {"--mask-storage"},
+            description = {"Where the per pixel masks are kept, one of ${COMPLETION-CANDIDATES}",
+                           "DIRECT (default) and MAPPED keep them off the heap, MAPPED in temporary files"})
+    private PixelMaskStorage maskStorage = PixelMaskStorage.DIRECT;
+
+    @CommandLine.Option(names = {"--output-mode"},
+            description = {"What is saved for each image, one of ${COMPLETION-CANDIDATES}",
+                           "FULL (default) saves <file>-processed.png, OVERLAY only the marked pixels as runs in "
+                                   + "<file>-overlay.csv, without encoding the image"})
+    private ImageOutputWriter.Mode outputMode = ImageOutputWriter.Mode.FULL;
+
+    @CommandLine.Option(names = {"--png-compression"},
+            description = {"Deflate level of the PNG files, from 0 (fastest, largest) to 9 (slowest, smallest)",
+                           "Defaults to the Java PNG writer, which always uses 9, a low level such as 1 saves most "
+                                   + "of the encoding time"})
+    private Integer pngCompression;
+
+    @CommandLine.Option(names = {"--preview-scale"},
+            description = {"Also save the marked image scaled by this factor as <file>-preview.png, "
+                                   + "value should be above 0 and at most 1"})
+    private Double previewScale;
+
+    @CommandLine.Option(names = {"--output-threads"},
+            description = {"Number of threads saving the output files, value should be at least 1",
+                           "Output of an image is saved while the dots of the next one are counted"})
+    private int outputThreads = 1;
+
+    @CommandLine.Option(names = {"--parallelism"},
+            description = {"Number of files to process in parallel, value should be at least 1",
+                           "More files in parallel would require more memory"})
+    private int parallelism = 1;
+
+    @CommandLine.Option(names = {"--max-images-in-memory"},
+            description = {"Maximum number of decoded images held in memory at once, value should be at least 1",
+                           "Defaults to the number of files processed in parallel plus the number of output "
+                                   + "threads"})
+    private Integer maxImagesInMemory;
+
+    @CommandLine.Option(names = {"--recursive"},
+            description = {"Also process the files of the sub directories of the input directory",
+                           "Outputs are saved in the same sub directories of the output directory"})
+    private boolean recursive;
+
+    @CommandLine.Option(names = {"--watch"},
+            description = {"Keep running after the files of the input directory are processed, and process files "
+                                   + "added to it or replaced until stopped with Ctrl+C",
+                           "Rows are added to Summary.csv and Metrics.csv as files complete, sub directories are "
+                                   + "not watched"})
+    private boolean watch;
+
+    @CommandLine.Option(names = {"--settle-seconds"},
+            description = {"With --watch, time a file should stay unchanged before it is processed, so files still "
+                                   + "being copied are not read, default ${DEFAULT-VALUE}"})
+    private long settleSeconds = 5;
+
+    enum Strategy {
+        MULTI_PASS,
+        SINGLE_THRESHOLD
+    }
+
     @Override
     public void execute() throws ToolExecutionException {
         validateInput();
         try {
             executeTool(inputDir.toPath(), outputDir.toPath());
-        } catch (IOException e) {
+        } catch (IOException | InterruptedException e) {
             throw new ToolExecutionException(e);
         }
     }
 
+    /**
+     * Counts the dots of a file and hands the marked image over to the output threads, so the worker can go on
+     * with the next file while it is saved. The returned future completes once the output is saved.
+     */
+    private static class ImageFileWorker implements Callable<Future<Integer>> {
+        private final InputDiscovery.InputFile inputFile;
+        private final ImageProcessingStrategy strategy;
+        private final ImageOutputWriter outputWriter;
+        private final ExecutorService outputExecutor;
+        private final ImageResultIndex resultIndex;
+        private final boolean recompute;
+        private final Semaphore decodedImagePermits;
+        private final File outputCsvFile;
+        private final File metricsCsvFile;
+        // run once the file is marked processed, e.g. to save the manifest while watching
+        private final Runnable onProcessed;
+
+        public ImageFileWorker(final InputDiscovery.InputFile inputFile, final ImageProcessingStrategy strategy,
+                               final ImageOutputWriter outputWriter, final ExecutorService outputExecutor,
+                               final ImageResultIndex resultIndex, final boolean recompute,
+                               final Semaphore decodedImagePermits, final File outputCsvFile,
+                               final File metricsCsvFile, final Runnable onProcessed) {
+            this.inputFile = inputFile;
+            this.strategy = strategy;
+            this.outputWriter = outputWriter;
+            this.outputExecutor = outputExecutor;
+            this.resultIndex = resultIndex;
+            this.recompute = recompute;
+            this.decodedImagePermits = decodedImagePermits;
+            this.outputCsvFile = outputCsvFile;
+            this.metricsCsvFile = metricsCsvFile;
+            this.onProcessed = onProcessed;
+        }
+
+        @Override
+        public Future<Integer> call() throws Exception {
+            final String inputFileName = inputFile.getName();
+            final String contentHash;
+            try {
+                contentHash = inputFile.getContentHash();
+            } catch (IOException e) {
+                log.error("Failed to read file - {}", inputFileName);
+                throw e;
+            }
+            final String parametersHash = ImageResultIndex.hashParameters(
+                    strategy.getParameters() + ' ' + outputWriter.getParameters());
+
+            final ImageResultIndex.Result cachedResult = resultIndex.find(contentHash, parametersHash, inputFileName);
+            if (!recompute && cachedResult != null
+                        && cachedResult.isOutputUnchanged(outputWriter.getOutputFile(inputFileName))
+                        && outputWriter.isOutputPresent(inputFileName)) {
+                inputFile.markProcessed(contentHash);
+                onProcessed.run();
+                appendLine(outputCsvFile, String.format("%s,%d", inputFileName, cachedResult.getCount()));
+                log.info("File unchanged since processed, using cached count - {}, count - {}", inputFileName,
+                         cachedResult.getCount());
+                return CompletableFuture.completedFuture(cachedResult.getCount());
+            }
+
+            // the decoded image lives from decoding until its output is saved by the output threads
+            decodedImagePermits.acquire();
+            final MarkedImage markedImage;
+            final long startTime = System.currentTimeMillis();
+            try {
+                log.info("Processing file - {}", inputFileName);
+                markedImage = strategy.processTifFile(inputFile.getPath());
+            } catch (Exception e) {
+                decodedImagePermits.release();
+                log.error("Failed to process file - {}", inputFileName);
+                throw e;
+            }
+
+            return outputExecutor.submit(() -> {
+                try {
+                    outputWriter.write(markedImage, inputFileName);
+                } catch (Exception e) {
+                    log.error("Failed to save output of file - {}", inputFileName);
+                    throw e;
+                } finally {
+                    decodedImagePermits.release();
+                }
+
+                final int count = markedImage.getCount();
+                resultIndex.record(new ImageResultIndex.Result(contentHash, parametersHash, inputFileName, count,
+                                                               System.currentTimeMillis() - startTime,
+                                                               outputWriter.getOutputFile(inputFileName)));
+                inputFile.markProcessed(contentHash);
+                onProcessed.run();
+                appendLine(outputCsvFile, String.format("%s,%d", inputFileName, count));
+                appendLine(metricsCsvFile, markedImage.getMetrics().toCsvLine(inputFileName, count));
+                log.info("Successfully processed file - {}, count - {}", inputFileName, count);
+                return count;
+            });
+        }
+
+        private static synchronized void appendLine(final File csvFile, final String line) throws IOException {
+            FileUtils.writeStringToFile(csvFile, line + System.lineSeparator(), StandardCharsets.UTF_8, true);
+        }
+    }
+
     private void validateInput() {
         final Path inputDirPath = inputDir.toPath();
         final Path outputDirPath = outputDir.toPath();
 
         ValidationUtil.validateDir(spec, inputDirPath, outputDirPath);
+
+        if (tileParallelism < 1) {
+            throw new CommandLine.ParameterException(spec.commandLine(), "Tile parallelism should be at least 1");
+        }
+
+        if (parallelism < 1) {
+            throw new CommandLine.ParameterException(spec.commandLine(), "Parallelism should be at least 1");
+        }
+
+        if (maxImagesInMemory != null && maxImagesInMemory < 1) {
+            throw new CommandLine.ParameterException(spec.commandLine(), "Max images in memory should be at least 1");
+        }
+
+        if (outputThreads < 1) {
+            throw new CommandLine.ParameterException(spec.commandLine(), "Output threads should be at least 1");
+        }
+
+        if (pngCompression != null && (pngCompression < 0 || pngCompression > 9)) {
+            throw new CommandLine.ParameterException(spec.commandLine(), "PNG compression should be between 0 and 9");
+        }
+
+        if (previewScale != null && (previewScale <= 0 || previewScale > 1)) {
+            throw new CommandLine.ParameterException(spec.commandLine(),
+                                                     "Preview scale should be above 0 and at most 1");
+        }
+
+        if (settleSeconds < 0) {
+            throw new CommandLine.ParameterException(spec.commandLine(), "Settle seconds should be at least 0");
+        }
+
+        if (threshold < 0 || threshold > 255) {
+            throw new CommandLine.ParameterException(spec.commandLine(), "Threshold should be between 0 and 255");
+        }
+    }
+
+    private ImageProcessingStrategy createStrategy() {
+        if (strategy == Strategy.SINGLE_THRESHOLD) {
+            return new SingleThresholdStrategy(threshold, maskStorage);
+        }
+
+        return ImageProcessingStrategyTwo.withOptions(tileParallelism, componentTree, streaming, maskStorage);
     }
 
-    private void executeTool(final Path inputDirPath, final Path outputDirPath) throws IOException, ToolExecutionException {
+    private void executeTool(final Path inputDirPath, final Path outputDirPath)
+            throws IOException, InterruptedException, ToolExecutionException {
 
-        final List<String> outputCsvLines = new ArrayList<>();
         final File outputCsvFile = new File(outputDirPath.toFile(), "Summary.csv");
+        // rows are appended as files complete, start from an empty summary as before
+        FileUtils.writeLines(outputCsvFile, new ArrayList<String>());
+        // one row per file processed in this run, cached files have no metrics
+        final File metricsCsvFile = new File(outputDirPath.toFile(), "Metrics.csv");
+        FileUtils.writeLines(metricsCsvFile, Collections.singletonList(ProcessingMetrics.CSV_HEADER));
 
-        for (final File inputFile : FileUtils.listFiles(inputDirPath.toFile(), TrueFileFilter.INSTANCE, null)) {
-            final String inputFileName = inputFile.getName();
-            if (inputFileName.endsWith(".tif") || inputFileName.endsWith(".TIF") || inputFileName.endsWith(".tiff")
-                        || inputFileName.endsWith(".TIFF")) {
+        final Semaphore decodedImagePermits =
+                new Semaphore(maxImagesInMemory == null ? parallelism + outputThreads : maxImagesInMemory);
+        final ImageProcessingStrategy imageProcessingStrategy = createStrategy();
+        final ImageOutputWriter outputWriter = new ImageOutputWriter(outputDirPath, outputMode, pngCompression,
+                                                                     previewScale);
+        final ImageResultIndex resultIndex = ImageResultIndex.load(outputDirPath);
+        // unchanged files are not read again to find their result
+        final InputDiscovery inputDiscovery = InputDiscovery.withManifest(inputDirPath, "*.{tif,TIF,tiff,TIFF}",
+                                                                          recursive, outputDirPath);
 
-                if (isOutputPresent(inputFile.toPath(), outputDirPath)) {
-                    log.info("File already processed, ignoring - {}", inputFileName);
-                } else {
-                    log.info("Processing file - {}", inputFileName);
-                    try {
-                        int count = ImageProcessingStrategyTwo.processTifFile(inputFile.toPath(), outputDirPath);
-                        outputCsvLines.add(String.format("%s,%d", inputFileName, count));
-                        log.info("Successfully processed file - {}, count - {}", inputFileName, count);
-                    } catch (Exception e) {
-                        log.error("Failed to process file - {}", inputFileName);
-                        throw new ToolExecutionException("Failed to process file", e);
-                    }
-                }
+        final ExecutorService executorService = Executors.newFixedThreadPool(parallelism);
+        final ExecutorService outputExecutorService = Executors.newFixedThreadPool(outputThreads);
+        final List<ImageFileWorker> workers = new ArrayList<>();
+
+        // watching starts before listing, files added meanwhile are picked up by the watcher
+        final DirectoryWatcher watcher = watch ? new DirectoryWatcher(inputDirPath, inputDiscovery::matches,
+                                                                      TimeUnit.SECONDS.toMillis(settleSeconds))
+                                               : null;
+
+        for (final InputDiscovery.InputFile inputFile : inputDiscovery.findFiles()) {
+            workers.add(new ImageFileWorker(inputFile, imageProcessingStrategy, outputWriter, outputExecutorService,
+                                            resultIndex, recompute, decodedImagePermits, outputCsvFile,
+                                            metricsCsvFile, () -> { }));
+            if (watcher != null) {
+                watcher.markHandled(inputFile.getPath());
             }
         }
 
-        FileUtils.writeLines(outputCsvFile, outputCsvLines);
-    }
+        try {
+            final List<Future<Future<Integer>>> futures = new ArrayList<>();
+            for (final ImageFileWorker worker : workers) {
+                futures.add(executorService.submit(worker));
+            }
+
+            for (final Future<Future<Integer>> f : futures) {
+                f.get().get();
+            }
 
+            // drop results superseded during this run
+            resultIndex.compact();
+            inputDiscovery.saveManifest();
 
-    private boolean isOutputPresent(final Path inputFile, final Path outputDirPath) {
-        final File output = new File(outputDirPath.toFile(), inputFile.toFile().getName() + "-processed.png");
-        return Files.exists(output.toPath());
+            if (watcher != null) {
+                // the manifest is saved after each file, so files processed while watching are known next run
+                final Runnable saveManifest = () -> {
+                    try {
+                        inputDiscovery.saveManifest();
+                    } catch (IOException e) {
+                        log.error("Failed to save input manifest");
+                        log.debug("IO Exception - ", e);
+                    }
+                };
+
+                // Ctrl+C stops the watch; files being processed are completed unless it is pressed again
+                final Terminal terminal = vatiTool == null ? null : vatiTool.getTerminal();
+                final Thread watchThread = Thread.currentThread();
+                final Terminal.SignalHandler previousHandler = terminal == null ? null
+                        : terminal.handle(Terminal.Signal.INT, signal -> watchThread.interrupt());
+                try {
+                    log.info("Watching {} for new files, stop with Ctrl+C", inputDirPath);
+                    try {
+                        // failures are logged by the workers, one bad file should not stop the watch
+                        watcher.watch(inputFilePath -> {
+                            try {
+                                executorService.submit(new ImageFileWorker(inputDiscovery.getFile(inputFilePath),
+                                                                           imageProcessingStrategy, outputWriter,
+                                                                           outputExecutorService, resultIndex,
+                                                                           recompute, decodedImagePermits,
+                                                                           outputCsvFile, metricsCsvFile,
+                                                                           saveManifest));
+                            } catch (IOException e) {
+                                log.error("Failed to read file - {}", inputFilePath.toFile().getName());
+                            }
+                        });
+                    } catch (InterruptedException e) {
+                        log.info("Stopped watching {}, completing the files being processed", inputDirPath);
+                    }
+
+                    // workers hand their output over, so the output threads are stopped after them
+                    executorService.shutdown();
+                    executorService.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                    outputExecutorService.shutdown();
+                    outputExecutorService.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                    resultIndex.compact();
+                    inputDiscovery.saveManifest();
+                } finally {
+                    if (terminal != null) {
+                        terminal.handle(Terminal.Signal.INT, previousHandler);
+                    }
+                }
+            }
+        } catch (ExecutionException e) {
+            throw new ToolExecutionException("Failed to process file", e.getCause());
+        } finally {
+            if (watcher != null) {
+                watcher.close();
+            }
+            executorService.shutdownNow();
+            outputExecutorService.shutdownNow();
+            executorService.awaitTermination(10, TimeUnit.SECONDS);
+            outputExecutorService.awaitTermination(10, TimeUnit.SECONDS);
+            // the shell lives on, buffers kept for the next image would stay pinned outside the heap
+            PixelMaskStorage.releaseIdleBuffers();
+        }
     }
 }
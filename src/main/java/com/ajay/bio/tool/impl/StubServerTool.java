@@ -0,0 +1,153 @@
+package com.ajay.bio.tool.impl;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.ajay.bio.client.StubServer;
+import com.ajay.bio.exception.ToolExecutionException;
+import com.ajay.bio.util.ValidationUtil;
+import lombok.extern.log4j.Log4j2;
+import picocli.CommandLine;
+
+@CommandLine.Command(name = "STUB_SERVER", mixinStandardHelpOptions = true, version = "14-Aug-2022",
+        description = "Local stand-in for the IMGT and Clustal Omega services, replays recorded responses")
+@Log4j2
+public class StubServerTool implements BaseTool {
+    // keeps serving in the background while other tools are run from the shell
+    private static StubServer runningServer;
+
+    @CommandLine.Spec
+    CommandLine.Model.CommandSpec spec; // injected by picocli
+
+    @CommandLine.ArgGroup(multiplicity = "1")
+    private ExclusiveOptions exclusiveOptions;
+
+    static class ExclusiveOptions {
+        @CommandLine.Option(names = {"--responses-dir"}, required = true,
+                description = {"Directory with recorded responses to replay, such as an earlier output directory",
+                               "IMGT Excel files (*.xls), IMGT error pages (*.html) and Clustal alignments "
+                                       + "(*.aln, *-clustal-omega.txt) are found in all its sub directories"})
+        private File responsesDir;
+
+        @CommandLine.Option(names = {"--stop"}, required = true,
+                description = "Stop the running stub server")
+        private boolean stop;
+    }
+
+    @CommandLine.Option(names = {"--port"},
+            description = "Port to serve on, default: ${DEFAULT-VALUE}")
+    private int port = 8089;
+
+    @CommandLine.Option(names = {"--latency-ms"},
+            description = "Time to wait before each response")
+    private long latencyMillis;
+
+    @CommandLine.Option(names = {"--latency-jitter-ms"},
+            description = "Up to this much more time to wait before each response, at random")
+    private long latencyJitterMillis;
+
+    @CommandLine.Option(names = {"--latency-per-sequence-ms"},
+            description = "More time to wait for each sequence submitted to IMGT in a request")
+    private long sequenceLatencyMillis;
+
+    @CommandLine.Option(names = {"--error-rate"},
+            description = {"Share of requests to fail, value should be in range [0, 1]",
+                           "IMGT requests get an error page, Clustal requests a server error"})
+    private double errorRate;
+
+    @CommandLine.Option(names = {"--max-requests-per-second"},
+            description = {"Requests beyond this rate are answered with 429 Too Many Requests",
+                           "0 for no limit"})
+    private int maxRequestsPerSecond;
+
+    @CommandLine.Option(names = {"--max-concurrent-requests"},
+            description = {"Requests worked on at once, others wait for their turn and see a longer latency",
+                           "0 for no limit"})
+    private int maxConcurrentRequests;
+
+    @CommandLine.Option(names = {"--job-seconds"},
+            description = "Time a Clustal job runs before its alignment is ready, default: ${DEFAULT-VALUE}")
+    private int jobSeconds = 5;
+
+    @CommandLine.Option(names = {"--seed"},
+            description = "Seed of the random latencies and failures, the same seed fails the same requests")
+    private long seed = 1;
+
+    @Override
+    public void execute() throws ToolExecutionException {
+        if (exclusiveOptions.stop) {
+            if (!stopServer()) {
+                log.info("No stub server is running");
+            }
+            return;
+        }
+
+        validateInput();
+        try {
+            startServer();
+        } catch (IOException e) {
+            log.error("Failed to start stub server on port - {}", port);
+            log.debug("IO Exception - ", e);
+            throw new ToolExecutionException(e);
+        }
+    }
+
+    /**
+     * Stops the running stub server, returns false if none is running.
+     */
+    public static synchronized boolean stopServer() {
+        if (runningServer == null) {
+            return false;
+        }
+
+        runningServer.close();
+        runningServer = null;
+        return true;
+    }
+
+    private void startServer() throws IOException {
+        synchronized (StubServerTool.class) {
+            if (runningServer != null) {
+                throw new CommandLine.ParameterException(spec.commandLine(), "Stub server is already running, "
+                                                                                     + "stop it first with --stop");
+            }
+
+            final StubServer server = new StubServer(exclusiveOptions.responsesDir.toPath(), seed);
+            server.setLatency(latencyMillis, latencyJitterMillis, sequenceLatencyMillis);
+            server.setErrorRate(errorRate);
+            server.setMaxRequestsPerSecond(maxRequestsPerSecond);
+            server.setMaxConcurrentRequests(maxConcurrentRequests);
+            server.setJobMillis(jobSeconds * 1000L);
+            final int boundPort = server.start(port);
+            runningServer = server;
+
+            final String baseUrl = "http://localhost:" + boundPort;
+            log.info("Stub server replaying {} IMGT analyses and {} alignments", server.getWorkbookCount(),
+                     server.getAlignmentCount());
+            log.info("IMGT_ANALYSIS --imgt-url {}{}", baseUrl, StubServer.IMGT_PATH);
+            log.info("CLUSTAL_ALIGNMENT --clustal-url {}{}", baseUrl, StubServer.CLUSTALO_PATH);
+            log.info("Stop with - STUB_SERVER --stop");
+        }
+    }
+
+    private void validateInput() throws CommandLine.ParameterException {
+        ValidationUtil.validateDir(spec, exclusiveOptions.responsesDir.toPath());
+
+        if (port < 0 || port > 65535) {
+            throw new CommandLine.ParameterException(spec.commandLine(), "Port should be in range [0, 65535]");
+        }
+
+        if (latencyMillis < 0 || latencyJitterMillis < 0 || sequenceLatencyMillis < 0 || jobSeconds < 0) {
+            throw new CommandLine.ParameterException(spec.commandLine(), "Latencies should not be negative");
+        }
+
+        if (errorRate < 0 || errorRate > 1) {
+            throw new CommandLine.ParameterException(spec.commandLine(), "Error rate should be in range [0, 1]");
+        }
+
+        if (maxRequestsPerSecond < 0 || maxConcurrentRequests < 0) {
+            throw new CommandLine.ParameterException(spec.commandLine(),
+                                                     "Max requests should not be negative");
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.ajay.bio.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the base calls of an ABIF (.ab1) trace file from a memory mapped file. Unlike
+ * {@link org.biojava.nbio.core.sequence.io.ABITrace}, which reads the whole file and decodes every trace channel,
+ * only the directory and the tags asked for are read, the trace data is never touched.
+ * <p>
+ * Tags are those of the base caller, number 2, as ABITrace reads them. Files with a 128 byte MacBinary header
+ * are read too.
+ */
+public class AbifReader {
+    private static final int MAC_HEADER_SIZE = 128;
+    private static final int ENTRY_SIZE = 28;
+
+    private final Path filePath;
+    private final ByteBuffer buffer;
+    // where the file starts, offsets in the file are relative to it
+    private final int base;
+    private final int directoryOffset;
+    private final int entryCount;
+
+    public AbifReader(final Path filePath) throws IOException {
+        this.filePath = filePath;
+        try (final FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            // the mapping stays valid once the channel is closed
+            this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.BIG_ENDIAN);
+        }
+
+        if (isAbif(0)) {
+            base = 0;
+        } else if (isAbif(MAC_HEADER_SIZE)) {
+            base = MAC_HEADER_SIZE;
+        } else {
+            throw new IOException("Not a valid ABI file - " + filePath);
+        }
+
+        // the directory is described by the entry at byte 6
+        entryCount = intAt(base + 18);
+        directoryOffset = base + intAt(base + 26);
+    }
+
+    /**
+     * Bases called, one character per base.
+     */
+    public String getBaseCalls() throws IOException {
+        final ByteBuffer data = getData("PBAS", 2);
+        final byte[] bases = new byte[data.remaining()];
+        data.get(bases);
+        return new String(bases, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Quality value of each base called, on the Phred scale.
+     */
+    public byte[] getQualityValues() throws IOException {
+        final ByteBuffer data = getData("PCON", 2);
+        final byte[] qualityValues = new byte[data.remaining()];
+        data.get(qualityValues);
+        return qualityValues;
+    }
+
+    /**
+     * Position of each base called in the trace.
+     */
+    public int[] getPeakLocations() throws IOException {
+        final ByteBuffer data = getData("PLOC", 2);
+        final int[] peakLocations = new int[data.remaining() / 2];
+        for (int i = 0; i < peakLocations.length; i++) {
+            peakLocations[i] = data.getShort();
+        }
+        return peakLocations;
+    }
+
+    private boolean isAbif(final int offset) {
+        return buffer.limit() >= offset + 34 && buffer.get(offset) == 'A' && buffer.get(offset + 1) == 'B'
+                       && buffer.get(offset + 2) == 'I' && buffer.get(offset + 3) == 'F';
+    }
+
+    /**
+     * Returns a view of the data of a tag, data of up to 4 bytes is kept in the directory entry itself.
+     */
+    private ByteBuffer getData(final String name, final int number) throws IOException {
+        final int entry = findEntry(name, number);
+        final int dataSize = intAt(entry + 16);
+        final int dataOffset = dataSize <= 4 ? entry + 20 : base + intAt(entry + 20);
+        if (dataSize < 0 || dataOffset + dataSize > buffer.limit()) {
+            throw new IOException(String.format("Data of tag %s%d is out of the file - %s", name, number, filePath));
+        }
+
+        final ByteBuffer data = buffer.duplicate();
+        data.position(dataOffset);
+        data.limit(dataOffset + dataSize);
+        return data.slice();
+    }
+
+    private int findEntry(final String name, final int number) throws IOException {
+        final int tagName = name.charAt(0) << 24 | name.charAt(1) << 16 | name.charAt(2) << 8 | name.charAt(3);
+        for (int i = 0; i < entryCount; i++) {
+            final int entry = directoryOffset + i * ENTRY_SIZE;
+            if (intAt(entry) == tagName && intAt(entry + 4) == number) {
+                return entry;
+            }
+        }
+        throw new IOException(String.format("No tag %s%d in file - %s", name, number, filePath));
+    }
+
+    private int intAt(final int offset) throws IOException {
+        if (offset < 0 || offset + 4 > buffer.limit()) {
+            throw new IOException("Truncated ABI file - " + filePath);
+        }
+        return buffer.getInt(offset);
+    }
+}
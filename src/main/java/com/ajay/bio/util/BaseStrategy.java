@@ -2,16 +2,20 @@ package com.ajay.bio.util;
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Objects;
 import java.util.Stack;
 
 import javafx.util.Pair;
+import org.apache.commons.imaging.ImageReadException;
+import org.apache.commons.imaging.common.bytesource.ByteSourceFile;
+import org.apache.commons.imaging.formats.tiff.TiffImageParser;
 
 public class BaseStrategy {
-    private static final int MAX_BLOCK_SIZE_THRESHOLD = 5000;
-    private static final int MIN_BLOCK_SIZE_THRESHOLD = 5;
+    protected static final int MAX_BLOCK_SIZE_THRESHOLD = 5000;
+    protected static final int MIN_BLOCK_SIZE_THRESHOLD = 5;
 
     protected static boolean markDotRedIfAboveThreshold(final int i, final int j,
                                                       final BufferedImage tiffImage,
@@ -191,45 +195,23 @@ public class BaseStrategy {
 //    }
 
     protected static double getGrayScale(final int rgb) {
-        return new Color(rgb).getGreen();
+        // green channel, without allocating a Color per pixel
+        return (rgb >> 8) & 0xFF;
     }
 
-    protected static class Point {
-        final int x;
-        final int y;
-
-        private Point(final int x, final int y) {
-            this.x = x;
-            this.y = y;
-        }
-
-        public static Point of(final int x, final int y) {
-            return new Point(x,y);
-        }
-
-        @Override
-        public boolean equals(final Object o) {
-            if (this == o) {
-                return true;
-            }
-            if (o == null || getClass() != o.getClass()) {
-                return false;
-            }
-            final Point point = (Point) o;
-            return x == point.x && y == point.y;
-        }
-
-        @Override
-        public int hashCode() {
-            return Objects.hash(x, y);
-        }
+    protected static BufferedImage readTifFile(final File input) throws ImageReadException, IOException {
+        final TiffImageParser imageParser = new TiffImageParser();
+        return imageParser.getBufferedImage(new ByteSourceFile(input), imageParser.getDefaultParameters());
+    }
 
-        @Override
-        public String toString() {
-            return "Point{" +
-                           "x=" + x +
-                           ", y=" + y +
-                           '}';
-        }
+    /**
+     * Writes the count on {@code tiffImage}, or on the band of it starting at {@code firstRow}.
+     */
+    protected static void writeCountOnImage(final BufferedImage tiffImage, final int firstRow, final int count) {
+        final Graphics graphics = tiffImage.getGraphics();
+        graphics.translate(0, -firstRow);
+        graphics.setFont(graphics.getFont().deriveFont(30f));
+        graphics.drawString(String.format("Total Count - %d", count), 100, 100);
+        graphics.dispose();
     }
 }
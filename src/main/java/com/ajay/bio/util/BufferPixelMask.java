@@ -0,0 +1,85 @@
+package com.ajay.bio.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+
+/**
+ * {@link PixelMask} on a direct or memory mapped {@link ByteBuffer}, so the bits live outside the heap.
+ * The buffer is expected to be zeroed; what happens to it on {@link #close()} is up to the storage which
+ * allocated it.
+ */
+class BufferPixelMask implements PixelMask {
+    private final ByteBuffer buffer;
+    private final LongBuffer words;
+    private final int wordCount;
+    private final Runnable onClose;
+
+    BufferPixelMask(final ByteBuffer buffer, final int size, final Runnable onClose) {
+        this.buffer = buffer;
+        this.wordCount = (size + 63) >>> 6;
+        this.words = buffer.order(ByteOrder.nativeOrder()).asLongBuffer();
+        this.onClose = onClose;
+    }
+
+    /**
+     * Number of bytes needed for a mask of {@code size} pixels.
+     */
+    static int byteSize(final int size) {
+        return ((size + 63) >>> 6) * Long.BYTES;
+    }
+
+    ByteBuffer buffer() {
+        return buffer;
+    }
+
+    @Override
+    public boolean get(final int index) {
+        return (words.get(index >>> 6) & (1L << index)) != 0;
+    }
+
+    @Override
+    public void set(final int index) {
+        final int wordIndex = index >>> 6;
+        words.put(wordIndex, words.get(wordIndex) | (1L << index));
+    }
+
+    @Override
+    public void clear(final int index) {
+        final int wordIndex = index >>> 6;
+        words.put(wordIndex, words.get(wordIndex) & ~(1L << index));
+    }
+
+    @Override
+    public int nextSetBit(final int from) {
+        int wordIndex = from >>> 6;
+        if (wordIndex >= wordCount) {
+            return -1;
+        }
+
+        long word = words.get(wordIndex) & (-1L << from);
+        while (word == 0) {
+            if (++wordIndex == wordCount) {
+                return -1;
+            }
+            word = words.get(wordIndex);
+        }
+        return (wordIndex << 6) + Long.numberOfTrailingZeros(word);
+    }
+
+    @Override
+    public long bitsFrom(final int from) {
+        final int wordIndex = from >>> 6;
+        final int shift = from & 63;
+        final long low = wordIndex < wordCount ? words.get(wordIndex) >>> shift : 0;
+        if (shift == 0 || wordIndex + 1 >= wordCount) {
+            return low;
+        }
+        return low | (words.get(wordIndex + 1) << (64 - shift));
+    }
+
+    @Override
+    public void close() {
+        onClose.run();
+    }
+}
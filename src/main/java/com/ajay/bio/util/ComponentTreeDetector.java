@@ -0,0 +1,377 @@
+package com.ajay.bio.util;
+
+import java.util.Arrays;
+
+import static com.ajay.bio.util.FloodFillEngine.BOUNDARY_TO_MARK_DISTANCE;
+import static com.ajay.bio.util.FloodFillEngine.VALID_BOUNDARY_THRESHOLD;
+import static com.ajay.bio.util.ImageProcessingStrategyTwo.MAX_ISLAND_SIZE;
+import static com.ajay.bio.util.ImageProcessingStrategyTwo.MIN_ISLAND_SIZE;
+
+/**
+ * Component tree (max-tree) counterpart of the serial pass loop in {@link ImageProcessingStrategyTwo}.
+ * <p>
+ * Pixels at or above the lowest dot limit are sorted by green value once. As the dot limit drops from pass
+ * to pass, the pixels of the newly reached levels are added to a union-find, so the connected components of
+ * every threshold level are built incrementally instead of rescanning the image.
+ * <p>
+ * The islands of a pass are the components of the not yet visited pixels above the dot limit. Everything
+ * above the previous limit was visited by the previous passes, apart from the pixels of small islands which
+ * were put back, so only the new pixels and the put back ones are looked at. A threshold component made of
+ * such pixels only is an island as a whole; the others are split by a flood fill over their unvisited
+ * pixels. Islands are then committed in seed order with the serial collision, size and boundary rules. The
+ * serial scan seeds a small island again from each of its pixels further on and leaves it visited once an
+ * island accepted in between touches it, so small islands are checked at their last pixel instead; counts
+ * and the marked boundary thus match the serial scan. Dot limits have to decrease from pass to pass.
+ */
+class ComponentTreeDetector implements AutoCloseable {
+    private final GreenPlane greenPlane;
+    private final int width;
+    private final int height;
+
+    private final PixelMask visited;
+    private final PixelMask islandMask;
+    private final PixelMask boundaryMask;
+    private final IslandRings rings;
+
+    // pixels at or above the lowest level, sorted by decreasing green value and then by index
+    private final int[] sortedPixels;
+    // levelEnds[g] is the number of sorted pixels with green value at or above g
+    private final int[] levelEnds = new int[257];
+    private final int lowestLevel;
+
+    // union-find over the added pixels: the parent, or minus the component size for roots; roots are always
+    // the smallest index of their component
+    private final int[] parents;
+    private int addedLevel = 256;
+
+    // pixels of small islands put back as candidates for the next pass
+    private int[] putBack = new int[1024];
+    private int putBackSize;
+
+    // islands of the current pass stored back to back
+    private int[] islandPixels = new int[1024];
+    private int[] islandEnds = new int[256];
+    private long[] islandSeeds = new long[256];
+    private int islandCount;
+
+    private int[] stack = new int[1024];
+
+    ComponentTreeDetector(final GreenPlane greenPlane, final int lowestLevel, final PixelMaskStorage maskStorage) {
+        this.greenPlane = greenPlane;
+        this.width = greenPlane.width();
+        this.height = greenPlane.height();
+        this.lowestLevel = Math.max(0, lowestLevel);
+
+        final int pixelCount = width * height;
+        this.visited = maskStorage.allocate(pixelCount);
+        this.islandMask = maskStorage.allocate(pixelCount);
+        this.boundaryMask = maskStorage.allocate(pixelCount);
+        this.rings = new IslandRings(width, height, BOUNDARY_TO_MARK_DISTANCE, maskStorage);
+        this.parents = new int[pixelCount];
+
+        // counting sort, highest level first
+        final int[] levelCounts = new int[256];
+        for (int index = 0; index < pixelCount; index++) {
+            levelCounts[greenPlane.green(index)]++;
+        }
+        for (int level = 255; level >= 0; level--) {
+            levelEnds[level] = levelEnds[level + 1] + (level >= this.lowestLevel ? levelCounts[level] : 0);
+        }
+
+        this.sortedPixels = new int[levelEnds[this.lowestLevel]];
+        final int[] next = Arrays.copyOfRange(levelEnds, 1, 257);
+        for (int index = 0; index < pixelCount; index++) {
+            final int level = greenPlane.green(index);
+            if (level >= this.lowestLevel) {
+                sortedPixels[next[level]++] = index;
+            }
+        }
+    }
+
+    /**
+     * Runs one pass and returns the number of islands accepted in it.
+     */
+    int runPass(final int dotLimit, final int backgroundLimit) {
+        final int level = Math.max(dotLimit, lowestLevel);
+        final int previousEnd = levelEnds[addedLevel];
+        if (level > addedLevel) {
+            throw new IllegalArgumentException("Dot limits should decrease from pass to pass");
+        }
+        addLevels(level);
+
+        collectIslands(previousEnd, levelEnds[level], level);
+
+        // commit in seed order, as the serial row by row scan would have found them
+        final long[] order = Arrays.copyOf(islandSeeds, islandCount);
+        Arrays.sort(order);
+
+        // small islands in the order the serial scan seeds them for the last time, i.e. by last pixel
+        final long[] smallOrder = new long[islandCount];
+        int smallCount = 0;
+        for (int island = 0; island < islandCount; island++) {
+            if (islandEnds[island] - islandStart(island) < MIN_ISLAND_SIZE) {
+                smallOrder[smallCount++] = ((long) lastPixel(island) << 32) | island;
+            }
+        }
+        Arrays.sort(smallOrder, 0, smallCount);
+
+        putBackSize = 0;
+        int nextSmall = 0;
+        int count = 0;
+        for (final long seedAndIsland : order) {
+            final int island = (int) seedAndIsland;
+            final int from = islandStart(island);
+            if (islandEnds[island] - from < MIN_ISLAND_SIZE) {
+                continue;
+            }
+
+            while (nextSmall < smallCount && (smallOrder[nextSmall] >>> 32) < (seedAndIsland >>> 32)) {
+                putBack((int) smallOrder[nextSmall++]);
+            }
+            if (commit(from, islandEnds[island], backgroundLimit)) {
+                ++count;
+            }
+        }
+        while (nextSmall < smallCount) {
+            putBack((int) smallOrder[nextSmall++]);
+        }
+
+        return count;
+    }
+
+    void markBoundary(final PixelMarks marks, final int rgb) {
+        for (int index = boundaryMask.nextSetBit(0); index >= 0; index = boundaryMask.nextSetBit(index + 1)) {
+            marks.add(index, rgb);
+        }
+    }
+
+    @Override
+    public void close() {
+        visited.close();
+        islandMask.close();
+        boundaryMask.close();
+        rings.close();
+    }
+
+    private void addLevels(final int level) {
+        while (addedLevel > level) {
+            --addedLevel;
+            final int from = levelEnds[addedLevel + 1];
+            final int to = levelEnds[addedLevel];
+            for (int i = from; i < to; i++) {
+                parents[sortedPixels[i]] = -1;
+            }
+
+            for (int i = from; i < to; i++) {
+                final int pixel = sortedPixels[i];
+                final int x = pixel % width;
+                final int y = pixel / width;
+                for (int ny = Math.max(0, y - 1); ny <= Math.min(height - 1, y + 1); ny++) {
+                    for (int nx = Math.max(0, x - 1); nx <= Math.min(width - 1, x + 1); nx++) {
+                        final int neighbour = ny * width + nx;
+                        if (neighbour != pixel && greenPlane.green(neighbour) >= addedLevel) {
+                            union(pixel, neighbour);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Groups this pass's candidates, i.e. the newly added pixels and the put back ones, by threshold
+     * component and turns them into islands.
+     */
+    private void collectIslands(final int newFrom, final int newTo, final int dotLimit) {
+        final int candidateCount = putBackSize + newTo - newFrom;
+        final long[] candidates = new long[candidateCount];
+        for (int i = 0; i < putBackSize; i++) {
+            candidates[i] = ((long) find(putBack[i]) << 32) | putBack[i];
+        }
+        for (int i = newFrom; i < newTo; i++) {
+            final int pixel = sortedPixels[i];
+            candidates[putBackSize + i - newFrom] = ((long) find(pixel) << 32) | pixel;
+        }
+        Arrays.sort(candidates);
+
+        islandCount = 0;
+        int groupStart = 0;
+        while (groupStart < candidateCount) {
+            final int root = (int) (candidates[groupStart] >>> 32);
+            int groupEnd = groupStart + 1;
+            while (groupEnd < candidateCount && (int) (candidates[groupEnd] >>> 32) == root) {
+                ++groupEnd;
+            }
+
+            if (groupEnd - groupStart == -parents[root]) {
+                // no pixel of the component was visited, the whole component is one island seeded at its root
+                final int from = islandCount == 0 ? 0 : islandEnds[islandCount - 1];
+                ensureIslandCapacity(from + groupEnd - groupStart);
+                for (int i = groupStart; i < groupEnd; i++) {
+                    final int pixel = (int) candidates[i];
+                    visited.set(pixel);
+                    islandPixels[from + i - groupStart] = pixel;
+                }
+                addIsland(root, from + groupEnd - groupStart);
+            } else {
+                // candidates are in increasing index order, so each expansion starts from its seed
+                for (int i = groupStart; i < groupEnd; i++) {
+                    final int pixel = (int) candidates[i];
+                    if (!visited.get(pixel)) {
+                        expandIsland(pixel, dotLimit);
+                    }
+                }
+            }
+
+            groupStart = groupEnd;
+        }
+    }
+
+    private void expandIsland(final int seed, final int dotLimit) {
+        int size = islandCount == 0 ? 0 : islandEnds[islandCount - 1];
+
+        int top = 0;
+        stack[top++] = seed;
+        visited.set(seed);
+        while (top > 0) {
+            final int current = stack[--top];
+            ensureIslandCapacity(size + 1);
+            islandPixels[size++] = current;
+
+            final int x = current % width;
+            final int y = current / width;
+            for (int ny = Math.max(0, y - 1); ny <= Math.min(height - 1, y + 1); ny++) {
+                for (int nx = Math.max(0, x - 1); nx <= Math.min(width - 1, x + 1); nx++) {
+                    final int neighbour = ny * width + nx;
+                    if (!visited.get(neighbour) && greenPlane.green(neighbour) >= dotLimit) {
+                        visited.set(neighbour);
+                        if (top == stack.length) {
+                            stack = Arrays.copyOf(stack, top * 2);
+                        }
+                        stack[top++] = neighbour;
+                    }
+                }
+            }
+        }
+
+        addIsland(seed, size);
+    }
+
+    /**
+     * Applies the serial rules to the island {@code islandPixels[from, to)}, which is not below the minimum
+     * size.
+     */
+    private boolean commit(final int from, final int to, final int backgroundLimit) {
+        if (collides(from, to) || to - from > MAX_ISLAND_SIZE) {
+            return false;
+        }
+
+        rings.grow(islandPixels, from, to, BOUNDARY_TO_MARK_DISTANCE);
+        long matchCount = 0;
+        for (int i = rings.start(BOUNDARY_TO_MARK_DISTANCE); i < rings.end(BOUNDARY_TO_MARK_DISTANCE); i++) {
+            if (greenPlane.green(rings.pixel(i)) <= backgroundLimit) {
+                ++matchCount;
+            }
+        }
+        if (((double) matchCount / rings.size(BOUNDARY_TO_MARK_DISTANCE)) <= VALID_BOUNDARY_THRESHOLD) {
+            return false;
+        }
+
+        for (int i = from; i < to; i++) {
+            islandMask.set(islandPixels[i]);
+        }
+        for (int i = rings.start(1); i < rings.end(1); i++) {
+            islandMask.set(rings.pixel(i));
+        }
+        for (int i = rings.start(BOUNDARY_TO_MARK_DISTANCE); i < rings.end(BOUNDARY_TO_MARK_DISTANCE); i++) {
+            boundaryMask.set(rings.pixel(i));
+        }
+        return true;
+    }
+
+    /**
+     * Puts a small island back as candidate for the next pass, unless an island accepted up to its last pixel
+     * touches it.
+     */
+    private void putBack(final int island) {
+        final int from = islandStart(island);
+        final int to = islandEnds[island];
+        if (collides(from, to)) {
+            return;
+        }
+
+        for (int i = from; i < to; i++) {
+            visited.clear(islandPixels[i]);
+            if (putBackSize == putBack.length) {
+                putBack = Arrays.copyOf(putBack, putBackSize * 2);
+            }
+            putBack[putBackSize++] = islandPixels[i];
+        }
+    }
+
+    /**
+     * Returns true if the immediate boundary of {@code islandPixels[from, to)} touches an accepted island or
+     * its boundary; leaves that boundary in the first ring.
+     */
+    private boolean collides(final int from, final int to) {
+        rings.grow(islandPixels, from, to, 1);
+        for (int i = rings.start(1); i < rings.end(1); i++) {
+            if (islandMask.get(rings.pixel(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int islandStart(final int island) {
+        return island == 0 ? 0 : islandEnds[island - 1];
+    }
+
+    private int lastPixel(final int island) {
+        int last = islandPixels[islandStart(island)];
+        for (int i = islandStart(island); i < islandEnds[island]; i++) {
+            last = Math.max(last, islandPixels[i]);
+        }
+        return last;
+    }
+
+    private void addIsland(final int seed, final int end) {
+        if (islandCount == islandEnds.length) {
+            islandEnds = Arrays.copyOf(islandEnds, islandCount * 2);
+            islandSeeds = Arrays.copyOf(islandSeeds, islandCount * 2);
+        }
+        islandEnds[islandCount] = end;
+        islandSeeds[islandCount] = ((long) seed << 32) | islandCount;
+        ++islandCount;
+    }
+
+    private void ensureIslandCapacity(final int capacity) {
+        if (capacity > islandPixels.length) {
+            islandPixels = Arrays.copyOf(islandPixels, Math.max(capacity, islandPixels.length * 2));
+        }
+    }
+
+    private void union(final int first, final int second) {
+        final int firstRoot = find(first);
+        final int secondRoot = find(second);
+        if (firstRoot == secondRoot) {
+            return;
+        }
+
+        final int root = Math.min(firstRoot, secondRoot);
+        final int child = Math.max(firstRoot, secondRoot);
+        parents[root] += parents[child];
+        parents[child] = root;
+    }
+
+    private int find(int pixel) {
+        while (parents[pixel] >= 0) {
+            final int parent = parents[pixel];
+            if (parents[parent] >= 0) {
+                parents[pixel] = parents[parent];
+            }
+            pixel = parent;
+        }
+        return pixel;
+    }
+}
@@ -0,0 +1,144 @@
+package com.ajay.bio.util;
+
+import java.util.concurrent.TimeUnit;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Limits the requests to a remote service which are in flight at once, and the rate they are started at. Thread
+ * safe, each {@link #acquire()} should be followed by a {@link #release(long, Outcome)}.
+ * <p>
+ * If adaptive, the limit follows the service AIMD style, like a TCP congestion window. It grows by one request per
+ * response until the service first shows signs of overload, then by one request per limit of responses. A failed
+ * request, such as one throttled, halves the limit. An error response, or a response much slower than the fastest
+ * seen, lowers it by a tenth, as requests are then queued by the service rather than served. The limit is lowered
+ * once per round trip at most, since the responses to requests started before were sent at the old limit.
+ */
+@Log4j2
+public class ConcurrencyLimiter {
+    // a response this many times slower than the fastest is taken as queued by the service
+    private static final double QUEUED_LATENCY_RATIO = 2.0;
+
+    private final int maxLimit;
+    private final boolean adaptive;
+    private final double maxRequestsPerSecond;
+
+    private double limit;
+    private boolean slowStart = true;
+    private int inFlight;
+    private long lastDecreaseNanos = Long.MIN_VALUE;
+    // latency of the fastest responses, or of a request alone in flight once the service slowed down for good
+    private long baseLatencyNanos = Long.MAX_VALUE;
+
+    // token bucket of the rate limit, holding up to a second of requests
+    private double tokens;
+    private long tokensRefilledNanos = System.nanoTime();
+
+    /**
+     * How a request ended.
+     */
+    public enum Outcome {
+        /** the service responded as expected */
+        SUCCESS,
+        /** the service responded with an error, which may not be due to load */
+        ERROR_RESPONSE,
+        /** the request failed or was throttled */
+        FAILURE
+    }
+
+    /**
+     * Starts at {@code initialLimit} requests in flight, and if {@code adaptive} moves between 1 and
+     * {@code maxLimit} requests. {@code maxRequestsPerSecond} is 0 for no rate limit.
+     */
+    public ConcurrencyLimiter(final int initialLimit, final int maxLimit, final boolean adaptive,
+                              final double maxRequestsPerSecond) {
+        this.limit = initialLimit;
+        this.maxLimit = maxLimit;
+        this.adaptive = adaptive;
+        this.maxRequestsPerSecond = maxRequestsPerSecond;
+        this.tokens = Math.max(1, maxRequestsPerSecond);
+    }
+
+    /**
+     * Waits until a request can be started within the limit and the rate, and returns the time it started at.
+     */
+    public synchronized long acquire() throws InterruptedException {
+        while (true) {
+            long waitNanos = 0;
+            if (inFlight < (int) limit) {
+                waitNanos = takeToken();
+                if (waitNanos == 0) {
+                    ++inFlight;
+                    return System.nanoTime();
+                }
+            }
+            // woken up early by a release if waiting for the limit
+            TimeUnit.NANOSECONDS.timedWait(this, waitNanos == 0 ? TimeUnit.SECONDS.toNanos(1) : waitNanos);
+        }
+    }
+
+    /**
+     * Ends a request started at {@code startNanos}.
+     */
+    public synchronized void release(final long startNanos, final Outcome outcome) {
+        --inFlight;
+        notifyAll();
+        if (!adaptive) {
+            return;
+        }
+
+        final long now = System.nanoTime();
+        final long latencyNanos = now - startNanos;
+        if (outcome == Outcome.FAILURE) {
+            decrease(startNanos, now, 0.5);
+        } else if (outcome == Outcome.ERROR_RESPONSE) {
+            decrease(startNanos, now, 0.9);
+        } else if (latencyNanos > QUEUED_LATENCY_RATIO * baseLatencyNanos) {
+            if (limit == 1) {
+                // nothing of ours is queued with a single request, the service is slower than it was
+                baseLatencyNanos = latencyNanos;
+            }
+            decrease(startNanos, now, 0.9);
+        } else {
+            baseLatencyNanos = Math.min(baseLatencyNanos, latencyNanos);
+            limit = Math.min(maxLimit, limit + (slowStart ? 1 : 1 / limit));
+        }
+    }
+
+    /**
+     * Requests allowed in flight at once for now.
+     */
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    private void decrease(final long startNanos, final long now, final double factor) {
+        if (startNanos < lastDecreaseNanos) {
+            return;
+        }
+
+        slowStart = false;
+        lastDecreaseNanos = now;
+        limit = Math.max(1, limit * factor);
+        log.debug("Lowered concurrency limit to {} requests", (int) limit);
+    }
+
+    /**
+     * Takes a token of the rate limit, returns 0 if taken or else the time until the next one.
+     */
+    private long takeToken() {
+        if (maxRequestsPerSecond <= 0) {
+            return 0;
+        }
+
+        final long now = System.nanoTime();
+        tokens = Math.min(Math.max(1, maxRequestsPerSecond),
+                          tokens + (now - tokensRefilledNanos) * maxRequestsPerSecond / 1e9);
+        tokensRefilledNanos = now;
+        if (tokens >= 1) {
+            --tokens;
+            return 0;
+        }
+        return Math.max(1, (long) ((1 - tokens) * 1e9 / maxRequestsPerSecond));
+    }
+}
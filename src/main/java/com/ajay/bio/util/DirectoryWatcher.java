@@ -0,0 +1,161 @@
+package com.ajay.bio.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Watches a directory, not its sub directories, for files being added or replaced.
+ * <p>
+ * Files are still being written when they show up, so a file is only handed over once its size and
+ * modification time stayed the same for the settle time. A file is handed over again only if it changed since.
+ * Events are queued from construction on, so files added while the caller lists the directory are not missed;
+ * {@link #markHandled(Path)} keeps those listed from being handed over a second time.
+ */
+@Log4j2
+public class DirectoryWatcher implements AutoCloseable {
+    private static final long POLL_MILLIS = 500;
+
+    private final Path dirPath;
+    private final Predicate<Path> filter;
+    private final long settleMillis;
+    private final WatchService watchService;
+
+    // files seen changing, with their last state and since when they have it
+    private final Map<Path, PendingFile> pendingFiles = new HashMap<>();
+    private final Map<Path, FileState> handledFiles = new HashMap<>();
+
+    public DirectoryWatcher(final Path dirPath, final Predicate<Path> filter, final long settleMillis)
+            throws IOException {
+        this.dirPath = dirPath;
+        this.filter = filter;
+        this.settleMillis = settleMillis;
+        this.watchService = dirPath.getFileSystem().newWatchService();
+        dirPath.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+    }
+
+    /**
+     * Records {@code filePath} as handled in its current state, e.g. as processed from a listing.
+     */
+    public void markHandled(final Path filePath) {
+        handledFiles.put(filePath, FileState.of(filePath.toFile()));
+    }
+
+    /**
+     * Hands every settled file to {@code onSettled}, from the calling thread, until interrupted.
+     */
+    public void watch(final Consumer<Path> onSettled) throws IOException, InterruptedException {
+        while (true) {
+            final WatchKey key = watchService.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            if (key != null) {
+                for (final WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        log.warn("Missed events of {}, looking at all of its files", dirPath);
+                        addAllFiles();
+                    } else {
+                        addPendingFile(dirPath.resolve((Path) event.context()));
+                    }
+                }
+                if (!key.reset()) {
+                    throw new IOException("Directory can no longer be watched - " + dirPath);
+                }
+            }
+
+            handSettledFiles(onSettled);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+
+    private void addAllFiles() {
+        final File[] files = dirPath.toFile().listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                addPendingFile(file.toPath());
+            }
+        }
+    }
+
+    private void addPendingFile(final Path filePath) {
+        if (filter.test(filePath) && !pendingFiles.containsKey(filePath)) {
+            pendingFiles.put(filePath, new PendingFile(FileState.of(filePath.toFile()), System.currentTimeMillis()));
+        }
+    }
+
+    private void handSettledFiles(final Consumer<Path> onSettled) {
+        final long now = System.currentTimeMillis();
+        final Iterator<Map.Entry<Path, PendingFile>> iterator = pendingFiles.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<Path, PendingFile> entry = iterator.next();
+            final File file = entry.getKey().toFile();
+            if (!file.isFile()) {
+                iterator.remove();
+                continue;
+            }
+
+            final FileState state = FileState.of(file);
+            if (!state.equals(entry.getValue().state)) {
+                entry.setValue(new PendingFile(state, now));
+            } else if (now - entry.getValue().since >= settleMillis) {
+                iterator.remove();
+                if (!state.equals(handledFiles.get(entry.getKey()))) {
+                    handledFiles.put(entry.getKey(), state);
+                    onSettled.accept(entry.getKey());
+                }
+            }
+        }
+    }
+
+    private static class PendingFile {
+        private final FileState state;
+        private final long since;
+
+        PendingFile(final FileState state, final long since) {
+            this.state = state;
+            this.since = since;
+        }
+    }
+
+    private static class FileState {
+        private final long size;
+        private final long lastModified;
+
+        FileState(final long size, final long lastModified) {
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        static FileState of(final File file) {
+            return new FileState(file.length(), file.lastModified());
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof FileState)) {
+                return false;
+            }
+            final FileState other = (FileState) o;
+            return size == other.size && lastModified == other.lastModified;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(size) * 31 + Long.hashCode(lastModified);
+        }
+    }
+}
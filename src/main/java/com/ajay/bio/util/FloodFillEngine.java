@@ -0,0 +1,190 @@
+package com.ajay.bio.util;
+
+import java.util.Arrays;
+
+/**
+ * Primitive flood-fill engine backing {@link ImageProcessingStrategyTwo}.
+ * <p>
+ * Pixels are addressed by their packed index ({@code y * width + x}), islands are grown with a reusable
+ * {@code int[]} stack and the visited/island/boundary masks are bit sets, so expanding an island does not
+ * allocate a boxed point per neighbour. The engine keeps the state of the island that was expanded last;
+ * callers go through {@link #expandIsland}, {@link #collidesWithAcceptedIsland}, {@link #getBoundaryToMark},
+ * {@link #isValidBoundary} and {@link #acceptIsland} in that order, as the set based code did.
+ * Masks are allocated from a {@link PixelMaskStorage} and handed back on {@link #close()}.
+ */
+class FloodFillEngine implements AutoCloseable {
+    static final int BOUNDARY_TO_MARK_DISTANCE = 4;
+    static final double VALID_BOUNDARY_THRESHOLD = 0.80;
+
+    private final GreenPlane greenPlane;
+    private final int width;
+    private final int height;
+
+    // pixels visited by any pass so far
+    private final PixelMask visited;
+    // accepted islands together with their immediate boundary, used for the collision check
+    private final PixelMask islandMask;
+    // boundary pixels to be highlighted on the output image
+    private final PixelMask boundaryMask;
+
+    private final IslandRings rings;
+
+    private int[] stack = new int[1024];
+
+    private int[] island = new int[1024];
+    private int islandSize;
+
+    FloodFillEngine(final GreenPlane greenPlane, final PixelMaskStorage maskStorage) {
+        this.greenPlane = greenPlane;
+        this.width = greenPlane.width();
+        this.height = greenPlane.height();
+
+        final int pixelCount = width * height;
+        this.visited = maskStorage.allocate(pixelCount);
+        this.islandMask = maskStorage.allocate(pixelCount);
+        this.boundaryMask = maskStorage.allocate(pixelCount);
+        this.rings = new IslandRings(width, height, BOUNDARY_TO_MARK_DISTANCE, maskStorage);
+    }
+
+    int indexOf(final int x, final int y) {
+        return y * width + x;
+    }
+
+    boolean isVisited(final int index) {
+        return visited.get(index);
+    }
+
+    /**
+     * The visited bits of the 64 pixels from {@code index} on, see {@link PixelMask#bitsFrom(int)}.
+     */
+    long visitedBitsFrom(final int index) {
+        return visited.bitsFrom(index);
+    }
+
+    /**
+     * Expands the island of not yet visited pixels above {@code dotLimit} which contains {@code seed} and
+     * marks all of them visited. Returns the island size.
+     */
+    int expandIsland(final int seed, final double dotLimit) {
+        islandSize = 0;
+
+        int top = 0;
+        stack[top++] = seed;
+        visited.set(seed);
+
+        while (top > 0) {
+            final int current = stack[--top];
+            island = append(island, islandSize++, current);
+
+            final int x = current % width;
+            final int y = current / width;
+            for (int dy = -1; dy <= 1; dy++) {
+                final int ny = y + dy;
+                if (ny < 0 || ny >= height) {
+                    continue;
+                }
+                for (int dx = -1; dx <= 1; dx++) {
+                    final int nx = x + dx;
+                    if ((dx == 0 && dy == 0) || nx < 0 || nx >= width) {
+                        continue;
+                    }
+
+                    final int neighbour = ny * width + nx;
+                    if (!visited.get(neighbour) && greenPlane.green(neighbour) >= dotLimit) {
+                        // marking on push keeps every pixel on the stack at most once
+                        visited.set(neighbour);
+                        if (top == stack.length) {
+                            stack = Arrays.copyOf(stack, top * 2);
+                        }
+                        stack[top++] = neighbour;
+                    }
+                }
+            }
+        }
+
+        return islandSize;
+    }
+
+    /**
+     * Returns true if the immediate boundary of the current island touches an already accepted island or
+     * its boundary.
+     */
+    boolean collidesWithAcceptedIsland() {
+        rings.grow(island, islandSize, 1);
+        for (int i = rings.start(1); i < rings.end(1); i++) {
+            if (islandMask.get(rings.pixel(i))) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Puts the current island pixels back in play for the next passes.
+     */
+    void unvisitIsland() {
+        for (int i = 0; i < islandSize; i++) {
+            visited.clear(island[i]);
+        }
+    }
+
+    /**
+     * Computes the ring of pixels at distance {@value #BOUNDARY_TO_MARK_DISTANCE} from the current island,
+     * which is what gets highlighted once the island is accepted. Returns the ring size.
+     */
+    int getBoundaryToMark() {
+        rings.grow(island, islandSize, BOUNDARY_TO_MARK_DISTANCE);
+        return rings.size(BOUNDARY_TO_MARK_DISTANCE);
+    }
+
+    /**
+     * Returns true if more than 80% of the boundary to mark is background, i.e. at or below
+     * {@code backgroundLimit}.
+     */
+    boolean isValidBoundary(final double backgroundLimit) {
+        long matchCount = 0;
+        for (int i = rings.start(BOUNDARY_TO_MARK_DISTANCE); i < rings.end(BOUNDARY_TO_MARK_DISTANCE); i++) {
+            if (greenPlane.green(rings.pixel(i)) <= backgroundLimit) {
+                ++matchCount;
+            }
+        }
+
+        return ((double) matchCount / rings.size(BOUNDARY_TO_MARK_DISTANCE)) > VALID_BOUNDARY_THRESHOLD;
+    }
+
+    /**
+     * Records the current island as a dot; expects {@link #getBoundaryToMark()} to have been computed for it.
+     */
+    void acceptIsland() {
+        for (int i = 0; i < islandSize; i++) {
+            islandMask.set(island[i]);
+        }
+        for (int i = rings.start(1); i < rings.end(1); i++) {
+            islandMask.set(rings.pixel(i));
+        }
+        for (int i = rings.start(BOUNDARY_TO_MARK_DISTANCE); i < rings.end(BOUNDARY_TO_MARK_DISTANCE); i++) {
+            boundaryMask.set(rings.pixel(i));
+        }
+    }
+
+    void markBoundary(final PixelMarks marks, final int rgb) {
+        for (int index = boundaryMask.nextSetBit(0); index >= 0; index = boundaryMask.nextSetBit(index + 1)) {
+            marks.add(index, rgb);
+        }
+    }
+
+    @Override
+    public void close() {
+        visited.close();
+        islandMask.close();
+        boundaryMask.close();
+        rings.close();
+    }
+
+    private static int[] append(final int[] buffer, final int size, final int value) {
+        final int[] target = size == buffer.length ? Arrays.copyOf(buffer, size * 2) : buffer;
+        target[size] = value;
+        return target;
+    }
+}
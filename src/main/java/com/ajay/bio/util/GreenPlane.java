@@ -0,0 +1,241 @@
+package com.ajay.bio.util;
+
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.io.IOException;
+
+import org.apache.commons.imaging.ImageReadException;
+
+/**
+ * Green channel of an image, pulled once into a compact {@code byte[]} indexed by packed pixel index
+ * ({@code y * width + x}). All threshold checks read from here instead of going through
+ * {@link BufferedImage#getRGB(int, int)} and a {@link java.awt.Color} per test.
+ * <p>
+ * Values are on the same 0 - 255 scale as {@code getRGB}, so the thresholds keep their meaning. The TIFF
+ * parser decodes 8 and 16 bit images into packed int RGB rasters, which are read straight from the
+ * {@link DataBuffer}; interleaved byte rasters are read directly as well and anything else goes through
+ * {@code getRGB} once, a row at a time.
+ * <p>
+ * A plane can also be streamed from a {@link TiffStripReader}: it then only holds a window of rows, which is
+ * extended band by band as pixels below it are asked for, and drops the rows above the one given to
+ * {@link #retainFrom(int)}. Islands never reach above the row they are seeded on, so with the scan row minus
+ * the ring margin retained the window stays a few bands high, whatever the size of the image.
+ */
+final class GreenPlane {
+    private final int width;
+    private final int height;
+    private final TiffStripReader reader;
+
+    private byte[] green;
+    // packed indexes held in green, green[0] is the pixel at windowStart
+    private int windowStart;
+    private int windowEnd;
+    private int retainedRow;
+
+    private GreenPlane(final int width, final int height, final byte[] green, final TiffStripReader reader) {
+        this.width = width;
+        this.height = height;
+        this.green = green;
+        this.reader = reader;
+        this.windowEnd = reader == null ? width * height : 0;
+    }
+
+    static GreenPlane of(final BufferedImage image) {
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final byte[] green = new byte[width * height];
+        read(image, green, 0);
+
+        return new GreenPlane(width, height, green, null);
+    }
+
+    /**
+     * Streams the plane from {@code reader}; nothing is decoded until the first pixel is read.
+     */
+    static GreenPlane inBands(final TiffStripReader reader) {
+        final int width = reader.width();
+        return new GreenPlane(width, reader.height(), new byte[2 * reader.bandHeight() * width], reader);
+    }
+
+    int width() {
+        return width;
+    }
+
+    int height() {
+        return height;
+    }
+
+    int green(final int index) {
+        if (index >= windowEnd) {
+            extendWindow(index);
+        }
+        return green[index - windowStart] & 0xFF;
+    }
+
+    /**
+     * Sets bit {@code x % 64} of {@code bits[x / 64]} for every pixel {@code x} of {@code row} at or above
+     * {@code limit}, and clears the others, the bits past the row end included. Each word is filled by a
+     * branch free loop over the bytes of the row, for the scan to skip background 64 pixels at a time.
+     */
+    void thresholdRow(final int row, final int limit, final long[] bits) {
+        final int rowStart = row * width;
+        if (rowStart + width > windowEnd) {
+            extendWindow(rowStart + width - 1);
+        }
+
+        final int offset = rowStart - windowStart;
+        final int fullWords = width >>> 6;
+        for (int word = 0; word < fullWords; word++) {
+            final int wordStart = offset + (word << 6);
+            long wordBits = 0;
+            for (int bit = 0; bit < 64; bit++) {
+                // the sign bit of limit - 1 - green is set exactly when green >= limit
+                wordBits |= (long) ((limit - 1 - (green[wordStart + bit] & 0xFF)) >>> 31) << bit;
+            }
+            bits[word] = wordBits;
+        }
+
+        final int tail = width & 63;
+        if (tail != 0) {
+            final int wordStart = offset + (fullWords << 6);
+            long wordBits = 0;
+            for (int bit = 0; bit < tail; bit++) {
+                wordBits |= (long) ((limit - 1 - (green[wordStart + bit] & 0xFF)) >>> 31) << bit;
+            }
+            bits[fullWords] = wordBits;
+        }
+    }
+
+    /**
+     * Tells a streamed plane that rows above {@code row} are no longer needed. Going back above the window, as
+     * a new pass does, restarts it from there. Does nothing for a plane read as a whole.
+     */
+    void retainFrom(final int row) {
+        if (reader == null) {
+            return;
+        }
+
+        retainedRow = row;
+        if (row * width < windowStart) {
+            windowStart = reader.bandStart(row) * width;
+            windowEnd = windowStart;
+        }
+    }
+
+    /**
+     * Decodes the bands up to the one containing {@code index}, dropping the rows above the retained one.
+     */
+    private void extendWindow(final int index) {
+        final int keepFrom = Math.min(windowEnd, Math.max(windowStart, retainedRow * width));
+        final int newEnd = Math.min(height, reader.bandStart(index / width) + reader.bandHeight()) * width;
+
+        final int capacity = newEnd - keepFrom;
+        final byte[] target = capacity > green.length ? new byte[Math.max(capacity, 2 * green.length)] : green;
+        System.arraycopy(green, keepFrom - windowStart, target, 0, windowEnd - keepFrom);
+        green = target;
+        windowStart = keepFrom;
+
+        for (int row = windowEnd / width; row * width < newEnd; row += reader.bandHeight()) {
+            try {
+                read(reader.readBand(row), green, row * width - windowStart);
+            } catch (ImageReadException | IOException e) {
+                throw new IllegalStateException("Failed to decode the TIFF band at row " + row, e);
+            }
+        }
+        windowEnd = newEnd;
+    }
+
+    private static void read(final BufferedImage image, final byte[] green, final int targetOffset) {
+        if (!readPackedInt(image, green, targetOffset) && !readInterleavedByte(image, green, targetOffset)) {
+            readRgb(image, green, targetOffset);
+        }
+    }
+
+    private static boolean readPackedInt(final BufferedImage image, final byte[] green, final int targetOffset) {
+        final Raster raster = image.getRaster();
+        final ColorModel colorModel = image.getColorModel();
+        if (!(raster.getDataBuffer() instanceof DataBufferInt)
+                    || !(raster.getSampleModel() instanceof SinglePixelPackedSampleModel)
+                    || !(colorModel instanceof DirectColorModel)
+                    || !isPlainSrgb(colorModel)
+                    || ((DirectColorModel) colorModel).getGreenMask() != 0x0000FF00) {
+            return false;
+        }
+
+        final SinglePixelPackedSampleModel sampleModel = (SinglePixelPackedSampleModel) raster.getSampleModel();
+        final int[] data = ((DataBufferInt) raster.getDataBuffer()).getData();
+        final int offset = raster.getDataBuffer().getOffset();
+        final int scanlineStride = sampleModel.getScanlineStride();
+        final int width = image.getWidth();
+        final int translateX = raster.getSampleModelTranslateX();
+        final int translateY = raster.getSampleModelTranslateY();
+
+        for (int y = 0; y < image.getHeight(); y++) {
+            final int rowStart = offset + (y - translateY) * scanlineStride - translateX;
+            final int planeStart = targetOffset + y * width;
+            for (int x = 0; x < width; x++) {
+                green[planeStart + x] = (byte) (data[rowStart + x] >> 8);
+            }
+        }
+        return true;
+    }
+
+    private static boolean readInterleavedByte(final BufferedImage image, final byte[] green,
+                                               final int targetOffset) {
+        final Raster raster = image.getRaster();
+        final ColorModel colorModel = image.getColorModel();
+        if (!(raster.getDataBuffer() instanceof DataBufferByte)
+                    || !(raster.getSampleModel() instanceof PixelInterleavedSampleModel)
+                    || !(colorModel instanceof ComponentColorModel)
+                    || !isPlainSrgb(colorModel)
+                    || colorModel.getComponentSize(1) != 8) {
+            return false;
+        }
+
+        final PixelInterleavedSampleModel sampleModel = (PixelInterleavedSampleModel) raster.getSampleModel();
+        final byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+        final int offset = raster.getDataBuffer().getOffset() + sampleModel.getBandOffsets()[1];
+        final int pixelStride = sampleModel.getPixelStride();
+        final int scanlineStride = sampleModel.getScanlineStride();
+        final int width = image.getWidth();
+        final int translateX = raster.getSampleModelTranslateX();
+        final int translateY = raster.getSampleModelTranslateY();
+
+        for (int y = 0; y < image.getHeight(); y++) {
+            final int rowStart = offset + (y - translateY) * scanlineStride - translateX * pixelStride;
+            final int planeStart = targetOffset + y * width;
+            for (int x = 0; x < width; x++) {
+                green[planeStart + x] = data[rowStart + x * pixelStride];
+            }
+        }
+        return true;
+    }
+
+    private static void readRgb(final BufferedImage image, final byte[] green, final int targetOffset) {
+        final int width = image.getWidth();
+        final int[] row = new int[width];
+        for (int y = 0; y < image.getHeight(); y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            final int planeStart = targetOffset + y * width;
+            for (int x = 0; x < width; x++) {
+                green[planeStart + x] = (byte) (row[x] >> 8);
+            }
+        }
+    }
+
+    private static boolean isPlainSrgb(final ColorModel colorModel) {
+        return colorModel.getColorSpace().isCS_sRGB()
+                       && colorModel.getColorSpace().getType() == ColorSpace.TYPE_RGB
+                       && !colorModel.isAlphaPremultiplied()
+                       && colorModel.getNumColorComponents() == 3;
+    }
+}
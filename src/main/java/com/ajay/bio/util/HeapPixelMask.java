@@ -0,0 +1,60 @@
+package com.ajay.bio.util;
+
+/**
+ * {@link PixelMask} on a {@code long[]}, the words are reclaimed by the garbage collector once closed.
+ */
+class HeapPixelMask implements PixelMask {
+    private final long[] words;
+
+    HeapPixelMask(final int size) {
+        this.words = new long[(size + 63) >>> 6];
+    }
+
+    @Override
+    public boolean get(final int index) {
+        return (words[index >>> 6] & (1L << index)) != 0;
+    }
+
+    @Override
+    public void set(final int index) {
+        words[index >>> 6] |= 1L << index;
+    }
+
+    @Override
+    public void clear(final int index) {
+        words[index >>> 6] &= ~(1L << index);
+    }
+
+    @Override
+    public int nextSetBit(final int from) {
+        int wordIndex = from >>> 6;
+        if (wordIndex >= words.length) {
+            return -1;
+        }
+
+        long word = words[wordIndex] & (-1L << from);
+        while (word == 0) {
+            if (++wordIndex == words.length) {
+                return -1;
+            }
+            word = words[wordIndex];
+        }
+        return (wordIndex << 6) + Long.numberOfTrailingZeros(word);
+    }
+
+    @Override
+    public long bitsFrom(final int from) {
+        final int wordIndex = from >>> 6;
+        final int shift = from & 63;
+        final long low = wordIndex < words.length ? words[wordIndex] >>> shift : 0;
+        if (shift == 0 || wordIndex + 1 >= words.length) {
+            return low;
+        }
+        return low | (words[wordIndex + 1] << (64 - shift));
+    }
+
+    @Override
+    public void close() {
+        // nothing to hand back
+    }
+}
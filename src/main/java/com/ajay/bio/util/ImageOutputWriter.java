@@ -0,0 +1,192 @@
+package com.ajay.bio.util;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.apache.commons.imaging.ImageReadException;
+
+/**
+ * Saves a {@link MarkedImage} in the output directory, in one of the {@link Mode}s and optionally with a
+ * downscaled preview. Holds no state between images, so one instance can write several images at once.
+ */
+public class ImageOutputWriter {
+    private final Path outputDirPath;
+    private final Mode mode;
+    private final Integer pngCompressionLevel;
+    private final Double previewScale;
+
+    /**
+     * What is saved for each image.
+     */
+    public enum Mode {
+        /** {@code <file name>-processed.png}, the image with the dots marked and the count written on it */
+        FULL,
+        /** {@code <file name>-overlay.csv}, only the marked pixels, as runs of pixels of one colour per row */
+        OVERLAY
+    }
+
+    /**
+     * PNG files are written with deflate level {@code pngCompressionLevel}, from 0 (fastest) to 9 (smallest), by
+     * {@link PngEncoder}, or by the ImageIO PNG writer with its default level if null. Unless {@code previewScale} is null, the marked image is also
+     * saved scaled by it as {@code <file name>-preview.png}.
+     */
+    public ImageOutputWriter(final Path outputDirPath, final Mode mode, final Integer pngCompressionLevel,
+                             final Double previewScale) {
+        this.outputDirPath = outputDirPath;
+        this.mode = mode;
+        this.pngCompressionLevel = pngCompressionLevel;
+        this.previewScale = previewScale;
+    }
+
+    /**
+     * Writer of the marked image as PNG with the default compression, and nothing else.
+     */
+    public static ImageOutputWriter png(final Path outputDirPath) {
+        return new ImageOutputWriter(outputDirPath, Mode.FULL, null, null);
+    }
+
+    /**
+     * Describes what is saved for each image, see {@link ImageProcessingStrategy#getParameters()}.
+     */
+    public String getParameters() {
+        return String.format("mode=%s pngCompression=%s previewScale=%s", mode, pngCompressionLevel, previewScale);
+    }
+
+    /**
+     * The file which holds the result for {@code inputFileName}, depending on the mode.
+     */
+    public File getOutputFile(final String inputFileName) {
+        final String suffix = mode == Mode.OVERLAY ? "-overlay.csv" : "-processed.png";
+        return new File(outputDirPath.toFile(), inputFileName + suffix);
+    }
+
+    /**
+     * Returns true if every file this writer saves for {@code inputFileName} exists.
+     */
+    public boolean isOutputPresent(final String inputFileName) {
+        return getOutputFile(inputFileName).isFile()
+                       && (previewScale == null || getPreviewFile(inputFileName).isFile());
+    }
+
+    /**
+     * Saves {@code markedImage}, adding the time spent to its metrics as encode time.
+     */
+    public void write(final MarkedImage markedImage) throws IOException, ImageReadException {
+        write(markedImage, markedImage.getFileName());
+    }
+
+    /**
+     * Saves {@code markedImage} under {@code inputFileName}, which may be a path relative to the output directory
+     * such as {@code run1/plate.tif}.
+     */
+    public void write(final MarkedImage markedImage, final String inputFileName)
+            throws IOException, ImageReadException {
+        final long allocatedBefore = ProcessingMetrics.currentThreadAllocatedBytes();
+        final long startTime = System.nanoTime();
+        writeOutputs(markedImage, inputFileName);
+        markedImage.getMetrics().addTime(ProcessingMetrics.Phase.ENCODE, System.nanoTime() - startTime);
+        markedImage.getMetrics().addAllocatedSince(allocatedBefore);
+    }
+
+    private void writeOutputs(final MarkedImage markedImage, final String inputFileName)
+            throws IOException, ImageReadException {
+        final BufferedImage preview = previewScale == null ? null : createPreview(markedImage);
+        final StripedImage.BandPainter painter = (band, firstRow) -> {
+            markedImage.marks().paint(band, firstRow);
+            BaseStrategy.writeCountOnImage(band, firstRow, markedImage.getCount());
+            if (preview != null) {
+                drawOnPreview(preview, band, firstRow, markedImage.height());
+            }
+        };
+
+        final File output = getOutputFile(inputFileName);
+        Files.createDirectories(output.getParentFile().toPath());
+        if (mode == Mode.OVERLAY) {
+            try (final Writer writer = Files.newBufferedWriter(output.toPath(), StandardCharsets.UTF_8)) {
+                markedImage.marks().writeRuns(writer);
+            }
+            if (preview != null) {
+                paintBands(markedImage, painter);
+            }
+        } else if (markedImage.image() == null) {
+            // bands are decoded and painted again as the PNG writer pulls their rows
+            writePng(new StripedImage(markedImage.reader(), painter), output);
+        } else {
+            painter.paint(markedImage.image(), 0);
+            writePng(markedImage.image(), output);
+        }
+
+        if (preview != null) {
+            writePng(preview, getPreviewFile(inputFileName));
+        }
+    }
+
+    private File getPreviewFile(final String inputFileName) {
+        return new File(outputDirPath.toFile(), inputFileName + "-preview.png");
+    }
+
+    private BufferedImage createPreview(final MarkedImage markedImage) {
+        final int width = Math.max(1, (int) Math.round(markedImage.width() * previewScale));
+        final int height = Math.max(1, (int) Math.round(markedImage.height() * previewScale));
+        return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    }
+
+    private static void drawOnPreview(final BufferedImage preview, final BufferedImage band, final int firstRow,
+                                      final int imageHeight) {
+        final int top = (int) Math.round((double) firstRow * preview.getHeight() / imageHeight);
+        final int bottom = (int) Math.round((double) (firstRow + band.getHeight()) * preview.getHeight()
+                                                    / imageHeight);
+
+        final Graphics2D graphics = preview.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        graphics.drawImage(band, 0, top, preview.getWidth(), bottom, 0, 0, band.getWidth(), band.getHeight(), null);
+        graphics.dispose();
+    }
+
+    private static void paintBands(final MarkedImage markedImage, final StripedImage.BandPainter painter)
+            throws IOException, ImageReadException {
+        if (markedImage.image() != null) {
+            painter.paint(markedImage.image(), 0);
+            return;
+        }
+
+        final TiffStripReader reader = markedImage.reader();
+        for (int row = 0; row < reader.height(); row += reader.bandHeight()) {
+            painter.paint(reader.readBand(row), row);
+        }
+    }
+
+    private void writePng(final RenderedImage image, final File output) throws IOException {
+        if (pngCompressionLevel != null) {
+            PngEncoder.write(image, pngCompressionLevel, output);
+            return;
+        }
+
+        // as ImageIO.write does, a longer old file would otherwise keep its tail
+        Files.deleteIfExists(output.toPath());
+        final ImageWriter writer = createPngWriter();
+        try (final ImageOutputStream stream = ImageIO.createImageOutputStream(output)) {
+            writer.setOutput(stream);
+            writer.write(null, new IIOImage(image, null, null), null);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    private static ImageWriter createPngWriter() {
+        return ImageIO.getImageWritersByFormatName("png").next();
+    }
+}
@@ -0,0 +1,21 @@
+package com.ajay.bio.util;
+
+import java.nio.file.Path;
+
+/**
+ * Counts the dots of a TIFF plate and finds the pixels to mark, which an {@link ImageOutputWriter} then saves.
+ * One instance serves all the files of a run, possibly from several threads at once.
+ */
+public interface ImageProcessingStrategy {
+
+    /**
+     * Returns the dots found in {@code inputFile}, with what is needed to save the marked image.
+     */
+    MarkedImage processTifFile(Path inputFile) throws Exception;
+
+    /**
+     * Describes everything which changes the count or the marked pixels, such as thresholds. Two runs with the
+     * same parameters on the same file give the same result, so results can be reused.
+     */
+    String getParameters();
+}
@@ -4,235 +4,247 @@ import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.nio.file.Path;
-import java.util.ArrayDeque;
-import java.util.Deque;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Set;
-
-import javax.imageio.ImageIO;
-
-import com.google.common.collect.Sets;
-import org.apache.commons.imaging.common.bytesource.ByteSourceFile;
-import org.apache.commons.imaging.formats.tiff.TiffImageParser;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
 
 public class ImageProcessingStrategyTwo extends BaseStrategy {
 
-    private static double dotLimit = 0;
-    private static double backgroundLimit = 0;
+    static final int MAX_ISLAND_SIZE = 5000;
+    static final int MIN_ISLAND_SIZE = 3;
 
     // we consider points with G > fLimit and boundary point G < bLimit
     private static int[] fLimit = {120, 100, 60, 50, 45, 40, 30, 25};
     private static int[] bLimit = {100, 70, 40, 38, 35, 30, 25, 18};
 
     public static int processTifFile(final Path inputFile, final Path outputDirPath) throws Exception {
-        final File input = inputFile.toFile();
-        final File output = new File(outputDirPath.toFile(), input.getName() + "-processed.png");
-
-        final TiffImageParser imageParser = new TiffImageParser();
-        final BufferedImage tiffImage = imageParser.getBufferedImage(new ByteSourceFile(input),
-                                                                     imageParser.getDefaultParameters());
-        boolean[][] isVisited = new boolean[tiffImage.getWidth()][tiffImage.getHeight()];
-
-        int count = 0;
-        final Set<Point> boundaryPoints = new HashSet<>();
-        final Set<Point> islandPoints = new HashSet<>();
-
-        //final Map<String, Long> timeMetricMap = new HashMap<>();
-        for (int i = 0; i < fLimit.length; i++) {
-
-            dotLimit = fLimit[i];
-            backgroundLimit = bLimit[i];
-
-            System.out.println("  => Pass - " + (i + 1) + " of " + fLimit.length + " passes");
-
-
-            for (int y = 0; y < tiffImage.getHeight(); y++) {
-                for (int x = 0; x < tiffImage.getWidth(); x++) {
-
-                    if (!isVisited[x][y] && isPixelAboveThreshold(tiffImage.getRGB(x, y), dotLimit)) {
-
-                        final long startTime = System.currentTimeMillis();
-                        Set<Point> currentIslandPoints = expandIsland(x, y, isVisited, tiffImage);
-//                        timeMetricMap.putIfAbsent("ExpandIsland", System.currentTimeMillis() - startTime);
-//                        timeMetricMap.computeIfPresent("ExpandIsland",
-//                                                       (key, value) -> value + (System.currentTimeMillis() - startTime));
-
-                        final long startTime2 = System.currentTimeMillis();
-                        if (!Sets.intersection(islandPoints, getBoundaryPoints(currentIslandPoints, tiffImage)).isEmpty()) {
-//                            timeMetricMap.put("CollisionCheck", System.currentTimeMillis() - startTime);
-//                            timeMetricMap.computeIfPresent("CollisionCheck",
-//                                                           (key, value) -> value + (System.currentTimeMillis() - startTime2));
-                            continue;
-                        }
-//                        timeMetricMap.put("CollisionCheck", System.currentTimeMillis() - startTime);
-//                        timeMetricMap.computeIfPresent("CollisionCheck",
-//                                                       (key, value) -> value + (System.currentTimeMillis() - startTime2));
-
-                        if (currentIslandPoints.size() > 5000) {
-                            continue;
-                        }
-
-                        if (currentIslandPoints.size() < 3) {
-                            currentIslandPoints.forEach(p -> isVisited[p.x][p.y] = false);
-                            continue;
-                        }
-
-
-                        final long startTime3 = System.currentTimeMillis();
-                        final Set<Point> currentBoundaryPoints = getBoundaryToMark(currentIslandPoints, tiffImage);
-//                        timeMetricMap.put("GetBoundaryToMark", System.currentTimeMillis() - startTime);
-//                        timeMetricMap.computeIfPresent("GetBoundaryToMark",
-//                                                       (key, value) -> value + (System.currentTimeMillis() - startTime3));
-
-                        final long startTime4 = System.currentTimeMillis();
-                        if (isValidBoundary(currentBoundaryPoints, tiffImage, currentIslandPoints)) {
-                            boundaryPoints.addAll(currentBoundaryPoints);
-                            islandPoints.addAll(currentIslandPoints);
-                            islandPoints.addAll(getBoundaryPoints(currentIslandPoints, tiffImage));
-                            ++count;
+        return processTifFile(inputFile, outputDirPath, 1, false);
+    }
 
-//                            timeMetricMap.put("IncreaseCount", System.currentTimeMillis() - startTime);
-//                            timeMetricMap.computeIfPresent("IncreaseCount",
-//                                                           (key, value) -> value + (System.currentTimeMillis() - startTime4));
-                        } else {
-                            //currentIslandPoints.forEach(p -> isVisited[p.x][p.y] = false);
-//                            timeMetricMap.put("RejectIsland", System.currentTimeMillis() - startTime);
-//                            timeMetricMap.computeIfPresent("RejectIsland",
-//                                                           (key, value) -> value + (System.currentTimeMillis() - startTime4));
-                        }
-                    }
-                }
+    /**
+     * Returns this strategy as an {@link ImageProcessingStrategy} running with the given options, see
+     * {@link #processTifFile(Path, Path, int, boolean, boolean, PixelMaskStorage)}.
+     */
+    public static ImageProcessingStrategy withOptions(final int tileParallelism, final boolean componentTree,
+                                                      final boolean streaming, final PixelMaskStorage maskStorage) {
+        return new ImageProcessingStrategy() {
+            @Override
+            public MarkedImage processTifFile(final Path inputFile) throws Exception {
+                return markTifFile(inputFile, tileParallelism, componentTree, streaming, maskStorage);
             }
 
-//            System.out.println("      - Count after pass - " + count);
-//            timeMetricMap.forEach((name, value)-> System.out.println("      - " + name + " - "+ value/1000));
-//
-//            timeMetricMap.clear();
-        }
-
-        boundaryPoints.forEach(p -> tiffImage.setRGB(p.x, p.y, Color.ORANGE.getRGB()));
+            @Override
+            public String getParameters() {
+                // all options give the same result, only the rules matter
+                return String.format("MULTI_PASS dotLimits=%s backgroundLimits=%s islandSize=[%d,%d] "
+                                             + "boundaryDistance=%d boundaryThreshold=%s",
+                                     Arrays.toString(fLimit), Arrays.toString(bLimit), MIN_ISLAND_SIZE,
+                                     MAX_ISLAND_SIZE, FloodFillEngine.BOUNDARY_TO_MARK_DISTANCE,
+                                     FloodFillEngine.VALID_BOUNDARY_THRESHOLD);
+            }
+        };
+    }
 
-        writeCountOnImage(tiffImage, count);
+    public static int processTifFile(final Path inputFile, final Path outputDirPath,
+                                     final int tileParallelism, final boolean componentTree) throws Exception {
+        return processTifFile(inputFile, outputDirPath, tileParallelism, componentTree, false,
+                              PixelMaskStorage.DIRECT);
+    }
 
-        ImageIO.write(tiffImage, "png", output);
+    /**
+     * Counts the dots of a TIFF file and saves the marked image as PNG. With {@code tileParallelism} above 1
+     * each pass is run on tiles of the image in parallel; with {@code componentTree} the islands of all passes
+     * come from a single sort of the pixels instead. Both give the same result as the serial scan.
+     * <p>
+     * With {@code streaming} the image is never decoded as a whole: the serial scan runs over a sliding window
+     * of TIFF strips and the PNG is written from the strips decoded again, so memory stays bounded by a few
+     * strips and the pixel masks. The other two options are ignored then.
+     * <p>
+     * The pixel masks, one bit per pixel each, are allocated from {@code maskStorage}.
+     */
+    public static int processTifFile(final Path inputFile, final Path outputDirPath, final int tileParallelism,
+                                     final boolean componentTree, final boolean streaming,
+                                     final PixelMaskStorage maskStorage) throws Exception {
+        final MarkedImage markedImage = markTifFile(inputFile, tileParallelism, componentTree, streaming,
+                                                    maskStorage);
+        ImageOutputWriter.png(outputDirPath).write(markedImage);
 
         //System.out.println(count);
 
-        return count;
+        return markedImage.getCount();
     }
 
-    private static void writeCountOnImage(final BufferedImage tiffImage, final int count) {
-        final Graphics graphics = tiffImage.getGraphics();
-        graphics.setFont(graphics.getFont().deriveFont(30f));
-        graphics.drawString(String.format("Total Count - %d", count), 100, 100);
-        graphics.dispose();
-    }
+    private static MarkedImage markTifFile(final Path inputFile, final int tileParallelism,
+                                           final boolean componentTree, final boolean streaming,
+                                           final PixelMaskStorage maskStorage) throws Exception {
+        final File input = inputFile.toFile();
+        final ProcessingMetrics metrics = new ProcessingMetrics();
+        final long allocatedBefore = ProcessingMetrics.currentThreadAllocatedBytes();
+        final long startTime = System.nanoTime();
+
+        if (streaming) {
+            // bands are decoded as the scan reaches them, that time is part of the count time
+            final TiffStripReader reader = new TiffStripReader(input);
+            final GreenPlane greenPlane = GreenPlane.inBands(reader);
+            final PixelMarks marks = new PixelMarks(reader.width());
+            metrics.addTime(ProcessingMetrics.Phase.DECODE, System.nanoTime() - startTime);
+            try (final FloodFillEngine engine = new FloodFillEngine(greenPlane, maskStorage)) {
+                final int count = countDots(greenPlane, engine, metrics);
+                engine.markBoundary(marks, Color.ORANGE.getRGB());
+                metrics.addAllocatedSince(allocatedBefore);
+                return new MarkedImage(input.getName(), count, reader, marks, metrics);
+            }
+        }
 
-    private static boolean isValidBoundary(final Set<Point> boundaryPoints, final BufferedImage tiffImage, final Set<Point> islandPoints) {
-        long matchCount = boundaryPoints.stream().filter(p -> isBackgroundPoint(tiffImage.getRGB(p.x, p.y))).count();
-        long totalCount = boundaryPoints.size();
+        final BufferedImage tiffImage = readTifFile(input);
+        final GreenPlane greenPlane = GreenPlane.of(tiffImage);
+        final PixelMarks marks = new PixelMarks(tiffImage.getWidth());
+        metrics.addTime(ProcessingMetrics.Phase.DECODE, System.nanoTime() - startTime);
 
-        double threshold = 0.80;
-        return ((double) matchCount / totalCount) > threshold;
+        final int count = countAndMarkDots(greenPlane, marks, tileParallelism, componentTree, maskStorage, metrics);
+        metrics.addAllocatedSince(allocatedBefore);
+        return new MarkedImage(input.getName(), count, tiffImage, marks, metrics);
     }
 
-    private static Set<Point> getBoundaryToMark(final Set<Point> pointList, final BufferedImage tiffImage) {
-        final Set<Point> currentIsland = new HashSet<>(pointList);
-
-        for (int i = 0; i < 3; i++) {
-            final Set<Point> boundaryPoints = getBoundaryPoints(currentIsland, tiffImage);
-            currentIsland.addAll(boundaryPoints);
+    /**
+     * Counts the dots of an already decoded image and adds their boundary to {@code marks}, without any file
+     * access.
+     */
+    static int countAndMarkDots(final GreenPlane greenPlane, final PixelMarks marks, final int tileParallelism,
+                                final boolean componentTree, final PixelMaskStorage maskStorage,
+                                final ProcessingMetrics metrics) {
+        if (componentTree) {
+            return countDotsWithComponentTree(greenPlane, marks, maskStorage, metrics);
+        }
+        if (tileParallelism > 1) {
+            return countDotsInTiles(greenPlane, marks, tileParallelism, maskStorage, metrics);
         }
 
-        return getBoundaryPoints(currentIsland, tiffImage);
+        try (final FloodFillEngine engine = new FloodFillEngine(greenPlane, maskStorage)) {
+            final int count = countDots(greenPlane, engine, metrics);
+            engine.markBoundary(marks, Color.ORANGE.getRGB());
+            return count;
+        }
     }
 
-    private static Set<Point> getBoundaryPoints(final Set<Point> pointList, final BufferedImage tiffImage) {
-        final Set<Point> boundaryPoints = new HashSet<>();
-        pointList.forEach(p -> {
-            final Set<Point> neighbours = getNeighbours(p, tiffImage.getWidth(), tiffImage.getHeight());
-            boundaryPoints.addAll(neighbours);
-        });
-
-        boundaryPoints.removeAll(pointList);
-        return boundaryPoints;
-    }
+    private static int countDotsWithComponentTree(final GreenPlane greenPlane, final PixelMarks marks,
+                                                  final PixelMaskStorage maskStorage,
+                                                  final ProcessingMetrics metrics) {
+        try (final ComponentTreeDetector detector = new ComponentTreeDetector(greenPlane, fLimit[fLimit.length - 1],
+                                                                              maskStorage)) {
+            int count = 0;
+            for (int i = 0; i < fLimit.length; i++) {
+                final long passStartTime = System.nanoTime();
+                final int passCount = detector.runPass(fLimit[i], bLimit[i]);
+                metrics.addPass(System.nanoTime() - passStartTime, passCount);
+                count += passCount;
+            }
 
-    private static boolean isBackgroundPoint(final int rgb) {
-        return getGrayScale(rgb) <= backgroundLimit;
+            detector.markBoundary(marks, Color.ORANGE.getRGB());
+            return count;
+        }
     }
 
-    private static Set<Point> expandIsland(final int x, final int y, final boolean[][] isVisited, final BufferedImage tiffImage) {
-        final Deque<Point> stack = new ArrayDeque<>();
-        stack.push(Point.of(x, y));
-
-        final Set<Point> pointList = new HashSet<>();
-        while (!stack.isEmpty()) {
-            final Point current = stack.pop();
-            isVisited[current.x][current.y] = true;
-
-            // stack always has not-visited elements with threshold above DOT
-            pointList.add(current);
+    private static int countDotsInTiles(final GreenPlane greenPlane, final PixelMarks marks,
+                                        final int tileParallelism, final PixelMaskStorage maskStorage,
+                                        final ProcessingMetrics metrics) {
+        final ForkJoinPool pool = new ForkJoinPool(tileParallelism);
+        try (final TiledIslandDetector detector = new TiledIslandDetector(greenPlane, pool, maskStorage)) {
+            int count = 0;
+            for (int i = 0; i < fLimit.length; i++) {
+                final long passStartTime = System.nanoTime();
+                final int passCount = detector.runPass(fLimit[i], bLimit[i]);
+                metrics.addPass(System.nanoTime() - passStartTime, passCount);
+                count += passCount;
+            }
 
-            getNeighbours(current, tiffImage.getWidth(), tiffImage.getHeight())
-                    .stream()
-                    .filter(p -> !isVisited[p.x][p.y])
-                    .filter(p -> isPixelAboveThreshold(tiffImage.getRGB(p.x, p.y), dotLimit))
-                    .forEach(stack::push);
+            detector.markBoundary(marks, Color.ORANGE.getRGB());
+            return count;
+        } finally {
+            pool.shutdown();
         }
-
-        return pointList;
     }
 
-    private static Set<Point> getNeighbours(final Point p, final int width, final int height) {
-        return getNeighboursAtDistance(p, width, height, 1);
-    }
+    private static int countDots(final GreenPlane greenPlane, final FloodFillEngine engine,
+                                 final ProcessingMetrics metrics) {
+        int count = 0;
+        // pixels of the current row at or above the dot limit of the pass, one bit each
+        final long[] rowAboveLimit = new long[(greenPlane.width() + 63) >>> 6];
 
-    private static Set<Point> getNeighboursAtDistance(final Point p, final int width, final int height, final int distance) {
-        final Set<Point> neighbours = new HashSet<>();
+        for (int i = 0; i < fLimit.length; i++) {
 
-        // right
-        if (p.x + distance < width) {
-            neighbours.add(Point.of(p.x + distance, p.y));
-        }
+            final double dotLimit = fLimit[i];
+            final double backgroundLimit = bLimit[i];
+
+            final long passStartTime = System.nanoTime();
+            final int countBeforePass = count;
+            // green values are whole numbers, so green >= dotLimit is green >= ceil(dotLimit)
+            final int seedLimit = (int) Math.ceil(dotLimit);
+            for (int y = 0; y < greenPlane.height(); y++) {
+                // islands seeded from this row on never reach above their boundary ring
+                greenPlane.retainFrom(Math.max(0, y - FloodFillEngine.BOUNDARY_TO_MARK_DISTANCE));
+                greenPlane.thresholdRow(y, seedLimit, rowAboveLimit);
+                final int rowStart = engine.indexOf(0, y);
+
+                for (int word = 0; word << 6 < greenPlane.width(); word++) {
+                    final int wordStart = rowStart + (word << 6);
+                    // expanding an island visits pixels further on, so the seeds left are read again each time
+                    int nextBit = 0;
+                    while (nextBit < 64) {
+                        final long seeds = rowAboveLimit[word] & ~engine.visitedBitsFrom(wordStart)
+                                                   & (-1L << nextBit);
+                        if (seeds == 0) {
+                            break;
+                        }
+                        nextBit = Long.numberOfTrailingZeros(seeds) + 1;
 
-        // left
-        if (p.x - distance >= 0) {
-            neighbours.add(Point.of(p.x - distance, p.y));
-        }
+                        final int seed = wordStart + nextBit - 1;
+                        metrics.islandExamined();
 
-        // top
-        if (p.y - distance >= 0) {
-            neighbours.add(Point.of(p.x, p.y - distance));
-        }
+                        final long startTime = System.nanoTime();
+                        final int islandSize = engine.expandIsland(seed, dotLimit);
+                        final long startTime2 = System.nanoTime();
+                        metrics.addTime(ProcessingMetrics.Phase.EXPAND_ISLAND, startTime2 - startTime);
 
-        // bottom
-        if (p.y + distance < height) {
-            neighbours.add(Point.of(p.x, p.y + distance));
-        }
+                        final boolean collides = engine.collidesWithAcceptedIsland();
+                        metrics.addTime(ProcessingMetrics.Phase.COLLISION_CHECK, System.nanoTime() - startTime2);
+                        if (collides) {
+                            metrics.islandRejected(ProcessingMetrics.Rejection.COLLISION);
+                            continue;
+                        }
 
-        // top-right
-        if (p.y - distance >= 0 && p.x + distance < width) {
-            neighbours.add(Point.of(p.x + distance, p.y - distance));
-        }
+                        if (islandSize > MAX_ISLAND_SIZE) {
+                            metrics.islandRejected(ProcessingMetrics.Rejection.SIZE);
+                            continue;
+                        }
 
-        // top-left
-        if (p.y - distance >= 0 && p.x - distance >= 0) {
-            neighbours.add(Point.of(p.x - distance, p.y - distance));
-        }
+                        if (islandSize < MIN_ISLAND_SIZE) {
+                            engine.unvisitIsland();
+                            metrics.islandRejected(ProcessingMetrics.Rejection.SIZE);
+                            continue;
+                        }
 
-        // bottom-right
-        if (p.y + distance < height && p.x + distance < width) {
-            neighbours.add(Point.of(p.x + distance, p.y + distance));
-        }
 
-        // bottom-left
-        if (p.y + distance < height && p.x - distance >= 0) {
-            neighbours.add(Point.of(p.x - distance, p.y + distance));
+                        final long startTime3 = System.nanoTime();
+                        engine.getBoundaryToMark();
+                        final long startTime4 = System.nanoTime();
+                        metrics.addTime(ProcessingMetrics.Phase.BOUNDARY_TO_MARK, startTime4 - startTime3);
+
+                        if (engine.isValidBoundary(backgroundLimit)) {
+                            engine.acceptIsland();
+                            ++count;
+                            metrics.islandAccepted();
+                        } else {
+                            //engine.unvisitIsland();
+                            metrics.islandRejected(ProcessingMetrics.Rejection.BOUNDARY);
+                        }
+                        metrics.addTime(ProcessingMetrics.Phase.VALIDATE_BOUNDARY, System.nanoTime() - startTime4);
+                    }
+                }
+            }
+
+            metrics.addPass(System.nanoTime() - passStartTime, count - countBeforePass);
         }
 
-        return neighbours;
+        return count;
     }
-
 }
@@ -0,0 +1,172 @@
+package com.ajay.bio.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.hash.Hashing;
+import lombok.extern.log4j.Log4j2;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Results of earlier IMAGE_PROCESSOR runs, kept as a CSV file in the output directory.
+ * <p>
+ * Results are keyed by the file name and the SHA-256 of the input file content and of the strategy parameters, see
+ * {@link ImageProcessingStrategy#getParameters()}, so an edited plate or changed thresholds are processed again, and
+ * copies of a plate in several sub directories each keep their own result. The size and modification time of the
+ * output image are kept too, so an output overwritten since, e.g. by a run with another strategy, is not taken for
+ * this result. Each result is appended as soon as it is recorded; later lines win when loading and {@link #compact()}
+ * rewrites the file with the live results only. Thread safe.
+ */
+@Log4j2
+public class ImageResultIndex {
+    public static final String INDEX_FILE_NAME = "ImageResults.csv";
+    private static final String HEADER =
+            "ContentHash,ParametersHash,FileName,Count,ProcessingMillis,OutputSize,OutputLastModified";
+    private static final int FIELD_COUNT = 7;
+
+    private final File indexFile;
+    private final Map<String, Result> results = new LinkedHashMap<>();
+
+    private ImageResultIndex(final File indexFile) {
+        this.indexFile = indexFile;
+    }
+
+    /**
+     * Loads the index of {@code outputDirPath}, or starts an empty one. Unreadable lines are ignored.
+     */
+    public static ImageResultIndex load(final Path outputDirPath) throws IOException {
+        final ImageResultIndex index = new ImageResultIndex(new File(outputDirPath.toFile(), INDEX_FILE_NAME));
+        if (!index.indexFile.exists()) {
+            return index;
+        }
+
+        for (final String line : FileUtils.readLines(index.indexFile, StandardCharsets.UTF_8)) {
+            if (line.isEmpty() || line.equals(HEADER)) {
+                continue;
+            }
+
+            final Result result = Result.parse(line);
+            if (result == null) {
+                log.warn("Ignoring unreadable line of {} - {}", INDEX_FILE_NAME, line);
+            } else {
+                index.results.put(result.key(), result);
+            }
+        }
+        return index;
+    }
+
+    public static String hashParameters(final String parameters) {
+        return Hashing.sha256().hashString(parameters, StandardCharsets.UTF_8).toString();
+    }
+
+    /**
+     * Returns the recorded result for this file, content and these parameters, or null.
+     */
+    public synchronized Result find(final String contentHash, final String parametersHash, final String fileName) {
+        return results.get(contentHash + ',' + parametersHash + ',' + fileName);
+    }
+
+    public synchronized void record(final Result result) throws IOException {
+        results.put(result.key(), result);
+
+        final String line = result.toLine() + System.lineSeparator();
+        if (indexFile.exists()) {
+            FileUtils.writeStringToFile(indexFile, line, StandardCharsets.UTF_8, true);
+        } else {
+            FileUtils.writeStringToFile(indexFile, HEADER + System.lineSeparator() + line, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Rewrites the index file without the results which were recorded again since.
+     */
+    public synchronized void compact() throws IOException {
+        final List<String> lines = new ArrayList<>();
+        lines.add(HEADER);
+        results.values().forEach(result -> lines.add(result.toLine()));
+        FileUtils.writeLines(indexFile, StandardCharsets.UTF_8.name(), lines);
+    }
+
+    public static class Result {
+        private final String contentHash;
+        private final String parametersHash;
+        private final String fileName;
+        private final int count;
+        private final long processingMillis;
+        private final long outputSize;
+        private final long outputLastModified;
+
+        public Result(final String contentHash, final String parametersHash, final String fileName,
+                      final int count, final long processingMillis, final File outputFile) {
+            this(contentHash, parametersHash, fileName, count, processingMillis, outputFile.length(),
+                 outputFile.lastModified());
+        }
+
+        private Result(final String contentHash, final String parametersHash, final String fileName,
+                       final int count, final long processingMillis, final long outputSize,
+                       final long outputLastModified) {
+            this.contentHash = contentHash;
+            this.parametersHash = parametersHash;
+            this.fileName = fileName;
+            this.count = count;
+            this.processingMillis = processingMillis;
+            this.outputSize = outputSize;
+            this.outputLastModified = outputLastModified;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public long getProcessingMillis() {
+            return processingMillis;
+        }
+
+        /**
+         * Returns true if {@code outputFile} is still the image written when this result was recorded.
+         */
+        public boolean isOutputUnchanged(final File outputFile) {
+            return outputFile.isFile() && outputFile.length() == outputSize
+                           && outputFile.lastModified() == outputLastModified;
+        }
+
+        private String key() {
+            return contentHash + ',' + parametersHash + ',' + fileName;
+        }
+
+        private String toLine() {
+            return String.join(",", contentHash, parametersHash, fileName, Integer.toString(count),
+                               Long.toString(processingMillis), Long.toString(outputSize),
+                               Long.toString(outputLastModified));
+        }
+
+        private static Result parse(final String line) {
+            final String[] fields = line.split(",", -1);
+            if (fields.length < FIELD_COUNT) {
+                return null;
+            }
+
+            // the file name may contain commas, the other fields can not
+            final int last = fields.length - 1;
+            final String fileName = String.join(",", Arrays.asList(fields).subList(2, last - 3));
+            try {
+                return new Result(fields[0], fields[1], fileName, Integer.parseInt(fields[last - 3]),
+                                  Long.parseLong(fields[last - 2]), Long.parseLong(fields[last - 1]),
+                                  Long.parseLong(fields[last]));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.ajay.bio.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+
+/**
+ * Splits the IMGT/V-QUEST Excel result of several sequences submitted at once into the results of single
+ * submissions.
+ * <p>
+ * Each result sheet has a header row and a row per sequence, numbered in the order the sequences were submitted in
+ * its first column. Sheets without that column, such as the parameters, describe the whole submission and are
+ * copied as they are. Only cell values are copied, as those are all the analysis has.
+ */
+public final class ImgtWorkbookSplitter {
+    private static final String SEQUENCE_NUMBER_HEADER = "Sequence number";
+
+    private ImgtWorkbookSplitter() {
+        // hide constructor
+    }
+
+    /**
+     * Returns the result of the sequences numbered {@code firstSequenceNumber} to {@code lastSequenceNumber},
+     * counted from 1, numbered from 1 again as if they were submitted alone. Returns null if the batch result has
+     * no row of these sequences.
+     */
+    public static Workbook extract(final Workbook batchWorkbook, final int firstSequenceNumber,
+                                   final int lastSequenceNumber) {
+        final Workbook workbook = new HSSFWorkbook();
+        boolean found = false;
+        for (final Sheet batchSheet : batchWorkbook) {
+            final Sheet sheet = workbook.createSheet(batchSheet.getSheetName());
+            final Row headerRow = batchSheet.getRow(batchSheet.getFirstRowNum());
+            if (headerRow == null || !isSequenceNumberCell(headerRow.getCell(0))) {
+                for (final Row row : batchSheet) {
+                    copyRow(row, sheet.createRow(row.getRowNum()), 0);
+                }
+                continue;
+            }
+
+            copyRow(headerRow, sheet.createRow(0), 0);
+            for (final Row row : batchSheet) {
+                final int sequenceNumber = getSequenceNumber(row);
+                if (row != headerRow && sequenceNumber >= firstSequenceNumber
+                            && sequenceNumber <= lastSequenceNumber) {
+                    copyRow(row, sheet.createRow(sheet.getLastRowNum() + 1), firstSequenceNumber - 1);
+                    found = true;
+                }
+            }
+        }
+        return found ? workbook : null;
+    }
+
+    /**
+     * Returns the number of sequences in FASTA text, i.e. the number of rows its result has per sheet. Text without
+     * a header line counts as one sequence.
+     */
+    public static int countSequences(final String fastaSequences) {
+        int count = fastaSequences.startsWith(">") ? 1 : 0;
+        for (int i = fastaSequences.indexOf("\n>"); i >= 0; i = fastaSequences.indexOf("\n>", i + 1)) {
+            ++count;
+        }
+        return Math.max(1, count);
+    }
+
+    /**
+     * The reverse of {@link #extract(Workbook, int, int)}, returns the result of a submission of
+     * {@code sequenceCount} sequences made of the rows of {@code workbook}, repeated as needed and numbered from 1.
+     */
+    public static Workbook repeat(final Workbook workbook, final int sequenceCount) {
+        final Workbook batchWorkbook = new HSSFWorkbook();
+        for (final Sheet sheet : workbook) {
+            final Sheet batchSheet = batchWorkbook.createSheet(sheet.getSheetName());
+            final Row headerRow = sheet.getRow(sheet.getFirstRowNum());
+            if (headerRow == null || !isSequenceNumberCell(headerRow.getCell(0))) {
+                for (final Row row : sheet) {
+                    copyRow(row, batchSheet.createRow(row.getRowNum()), 0);
+                }
+                continue;
+            }
+
+            final List<Row> rows = new ArrayList<>();
+            for (final Row row : sheet) {
+                if (row != headerRow && getSequenceNumber(row) > 0) {
+                    rows.add(row);
+                }
+            }
+            copyRow(headerRow, batchSheet.createRow(0), 0);
+            for (int i = 0; i < sequenceCount && !rows.isEmpty(); i++) {
+                final Row row = rows.get(i % rows.size());
+                copyRow(row, batchSheet.createRow(i + 1), getSequenceNumber(row) - (i + 1));
+            }
+        }
+        return batchWorkbook;
+    }
+
+    private static boolean isSequenceNumberCell(final Cell cell) {
+        return cell != null && cell.getCellType() == CellType.STRING
+                       && SEQUENCE_NUMBER_HEADER.equalsIgnoreCase(cell.getStringCellValue().trim());
+    }
+
+    /**
+     * Sequence number of a row, or -1 if it has none.
+     */
+    private static int getSequenceNumber(final Row row) {
+        final Cell cell = row.getCell(0);
+        if (cell == null) {
+            return -1;
+        }
+        if (cell.getCellType() == CellType.NUMERIC) {
+            return (int) cell.getNumericCellValue();
+        }
+        if (cell.getCellType() == CellType.STRING) {
+            try {
+                return Integer.parseInt(cell.getStringCellValue().trim());
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Copies the values of {@code from}, lowering the sequence number in its first column by
+     * {@code sequenceNumberOffset}.
+     */
+    private static void copyRow(final Row from, final Row to, final int sequenceNumberOffset) {
+        for (final Cell cell : from) {
+            final CellType cellType = cell.getCellType() == CellType.FORMULA ? cell.getCachedFormulaResultType()
+                                                                              : cell.getCellType();
+            final int column = cell.getColumnIndex();
+            if (column == 0 && sequenceNumberOffset != 0) {
+                final int sequenceNumber = getSequenceNumber(from) - sequenceNumberOffset;
+                if (cellType == CellType.NUMERIC) {
+                    to.createCell(column, CellType.NUMERIC).setCellValue(sequenceNumber);
+                } else {
+                    to.createCell(column, CellType.STRING).setCellValue(Integer.toString(sequenceNumber));
+                }
+            } else if (cellType == CellType.STRING) {
+                to.createCell(column, CellType.STRING).setCellValue(cell.getStringCellValue());
+            } else if (cellType == CellType.NUMERIC) {
+                to.createCell(column, CellType.NUMERIC).setCellValue(cell.getNumericCellValue());
+            } else if (cellType == CellType.BOOLEAN) {
+                to.createCell(column, CellType.BOOLEAN).setCellValue(cell.getBooleanCellValue());
+            }
+        }
+    }
+}
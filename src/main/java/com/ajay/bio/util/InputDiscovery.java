@@ -0,0 +1,261 @@
+package com.ajay.bio.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.hash.Hashing;
+import lombok.extern.log4j.Log4j2;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Finds the input files of a tool, those of a directory, and optionally of its sub directories, whose name matches
+ * a glob pattern such as {@code *.{tif,tiff}}. Sizes and modification times come with the directory walk, so
+ * finding the files reads no file.
+ * <p>
+ * With a manifest, the size, modification time and SHA-256 of each file are kept as a CSV file from run to run.
+ * A file whose size and modification time did not change since it was recorded is taken as unchanged, its hash is
+ * not computed again. Files are recorded by the tool once processed, those not processed keep their earlier state,
+ * so a file which failed is still seen as changed in the next run. Thread safe.
+ */
+@Log4j2
+public class InputDiscovery {
+    public static final String MANIFEST_FILE_NAME = "InputManifest.csv";
+    private static final String HEADER = "Path,Size,LastModified,ContentHash";
+
+    private final Path rootDirPath;
+    private final PathMatcher fileNameMatcher;
+    private final boolean recursive;
+    private final File manifestFile;
+    // state of the files as of the last manifest, and as recorded in this run
+    private final Map<String, State> manifestStates = new HashMap<>();
+    private final Map<String, State> recordedStates = new HashMap<>();
+    private final Map<String, State> foundStates = new HashMap<>();
+
+    private InputDiscovery(final Path rootDirPath, final String glob, final boolean recursive,
+                           final File manifestFile) {
+        this.rootDirPath = rootDirPath;
+        this.fileNameMatcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+        this.recursive = recursive;
+        this.manifestFile = manifestFile;
+    }
+
+    /**
+     * Finds files without a manifest, every file found is taken as changed.
+     */
+    public static InputDiscovery of(final Path rootDirPath, final String glob, final boolean recursive) {
+        return new InputDiscovery(rootDirPath, glob, recursive, null);
+    }
+
+    /**
+     * Finds files with the manifest kept in {@code manifestDirPath}, which is started if there is none yet.
+     * Unreadable lines are ignored.
+     */
+    public static InputDiscovery withManifest(final Path rootDirPath, final String glob, final boolean recursive,
+                                              final Path manifestDirPath) throws IOException {
+        final InputDiscovery discovery = new InputDiscovery(rootDirPath, glob, recursive,
+                                                            new File(manifestDirPath.toFile(), MANIFEST_FILE_NAME));
+        if (discovery.manifestFile.exists()) {
+            for (final String line : FileUtils.readLines(discovery.manifestFile, StandardCharsets.UTF_8)) {
+                if (line.isEmpty() || line.equals(HEADER)) {
+                    continue;
+                }
+
+                final int end = line.lastIndexOf(',', line.lastIndexOf(',', line.lastIndexOf(',') - 1) - 1);
+                final State state = end < 0 ? null : State.parse(line.substring(end + 1));
+                if (state == null) {
+                    log.warn("Ignoring unreadable line of {} - {}", MANIFEST_FILE_NAME, line);
+                } else {
+                    // the path may contain commas, the other fields can not
+                    discovery.manifestStates.put(line.substring(0, end), state);
+                }
+            }
+        }
+        return discovery;
+    }
+
+    public static String hashFile(final Path file) throws IOException {
+        return com.google.common.io.Files.asByteSource(file.toFile()).hash(Hashing.sha256()).toString();
+    }
+
+    /**
+     * Returns true if {@code filePath} would be found by its name, such as a file added to the directory since.
+     */
+    public boolean matches(final Path filePath) {
+        return fileNameMatcher.matches(filePath.getFileName());
+    }
+
+    /**
+     * Returns the matching files, ordered by their path. Symbolic links are followed, files which can not be read
+     * are skipped with a warning.
+     */
+    public List<InputFile> findFiles() throws IOException {
+        final List<InputFile> inputFiles = new ArrayList<>();
+        Files.walkFileTree(rootDirPath, EnumSet.of(FileVisitOption.FOLLOW_LINKS), recursive ? Integer.MAX_VALUE : 1,
+                           new SimpleFileVisitor<Path>() {
+                               @Override
+                               public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
+                                   if (attrs.isRegularFile() && matches(file)) {
+                                       inputFiles.add(createInputFile(file, attrs));
+                                   }
+                                   return FileVisitResult.CONTINUE;
+                               }
+
+                               @Override
+                               public FileVisitResult visitFileFailed(final Path file, final IOException e) {
+                                   log.warn("Skipping file which can not be read - {}", file);
+                                   return FileVisitResult.CONTINUE;
+                               }
+                           });
+
+        inputFiles.sort(Comparator.comparing(InputFile::getName));
+        return inputFiles;
+    }
+
+    /**
+     * Describes a single file of the directory, such as a file added since the directory was walked.
+     */
+    public InputFile getFile(final Path filePath) throws IOException {
+        return createInputFile(filePath, Files.readAttributes(filePath, BasicFileAttributes.class));
+    }
+
+    /**
+     * Rewrites the manifest with the files found in this run, in the state they were recorded in, or had in the
+     * last manifest if not recorded. Files which are no longer found are left out.
+     */
+    public synchronized void saveManifest() throws IOException {
+        if (manifestFile == null) {
+            return;
+        }
+
+        final List<String> names = new ArrayList<>(foundStates.keySet());
+        Collections.sort(names);
+
+        final List<String> lines = new ArrayList<>();
+        lines.add(HEADER);
+        for (final String name : names) {
+            final State state = recordedStates.containsKey(name) ? recordedStates.get(name) : manifestStates.get(name);
+            if (state != null) {
+                lines.add(name + ',' + state.toFields());
+            }
+        }
+        FileUtils.writeLines(manifestFile, StandardCharsets.UTF_8.name(), lines);
+    }
+
+    private InputFile createInputFile(final Path filePath, final BasicFileAttributes attrs) {
+        // the same name on every platform, as it is kept in the manifest
+        final String name = rootDirPath.relativize(filePath).toString().replace(File.separatorChar, '/');
+        final State state = new State(attrs.size(), attrs.lastModifiedTime().toMillis(), null);
+        synchronized (this) {
+            foundStates.put(name, state);
+        }
+        return new InputFile(filePath, name, state);
+    }
+
+    /**
+     * A file found, with its size and modification time as of the directory walk.
+     */
+    public class InputFile {
+        private final Path path;
+        private final String name;
+        private final State state;
+
+        private InputFile(final Path path, final String name, final State state) {
+            this.path = path;
+            this.name = name;
+            this.state = state;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        /**
+         * Path relative to the directory walked, with {@code /} between directories.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns true if the manifest has this file with another size or modification time. Files the manifest
+         * does not have are new rather than changed.
+         */
+        public boolean isChanged() {
+            final State manifestState;
+            synchronized (InputDiscovery.this) {
+                manifestState = manifestStates.get(name);
+            }
+            return manifestState != null && !manifestState.isSameFile(state);
+        }
+
+        /**
+         * SHA-256 of the file content, from the manifest if the file is unchanged since.
+         */
+        public String getContentHash() throws IOException {
+            final State manifestState;
+            synchronized (InputDiscovery.this) {
+                manifestState = recordedStates.containsKey(name) ? recordedStates.get(name) : manifestStates.get(name);
+            }
+            if (manifestState != null && manifestState.isSameFile(state) && manifestState.contentHash != null) {
+                return manifestState.contentHash;
+            }
+            return hashFile(path);
+        }
+
+        /**
+         * Records the file as processed in its state as found, with {@code contentHash} if known or null.
+         */
+        public void markProcessed(final String contentHash) {
+            synchronized (InputDiscovery.this) {
+                recordedStates.put(name, new State(state.size, state.lastModified, contentHash));
+            }
+        }
+    }
+
+    private static class State {
+        private final long size;
+        private final long lastModified;
+        private final String contentHash;
+
+        State(final long size, final long lastModified, final String contentHash) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.contentHash = contentHash;
+        }
+
+        boolean isSameFile(final State other) {
+            return size == other.size && lastModified == other.lastModified;
+        }
+
+        String toFields() {
+            return String.join(",", Long.toString(size), Long.toString(lastModified),
+                               contentHash == null ? "" : contentHash);
+        }
+
+        static State parse(final String fields) {
+            final String[] values = fields.split(",", -1);
+            try {
+                return new State(Long.parseLong(values[0]), Long.parseLong(values[1]),
+                                 values[2].isEmpty() ? null : values[2]);
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package com.ajay.bio.util;
+
+import java.util.Arrays;
+
+/**
+ * Rings of pixels around an island. Ring {@code d} holds the pixels at exactly that (chessboard) distance from
+ * the island, i.e. what repeatedly adding the neighbours of the grown island yields.
+ * <p>
+ * Rings of compact islands, such as dots, are read off a chamfer distance map of the bounding box of the island
+ * grown by the distance: two raster passes over a small local array, so the cost follows the island and its
+ * rings only, whatever the image size or the number of islands accepted before. The first ring alone, and
+ * islands spread over a box much larger than themselves, are grown one ring at a time on a pixel mask instead.
+ * Both give the same rings, the order of the pixels within a ring aside. Not thread safe, each worker keeps its
+ * own instance.
+ */
+class IslandRings implements AutoCloseable {
+    // the distance map is used while its area is at most this many times the island size, plus a margin
+    private static final int DISTANCE_MAP_AREA_PER_PIXEL = 8;
+
+    private final int width;
+    private final int height;
+
+    // scratch mask of the island and its rings, always cleared after use
+    private final PixelMask grownMask;
+
+    // chessboard distance to the island over the box being grown, capped at the distance asked for plus one
+    private byte[] distanceMap = new byte[4096];
+
+    // rings stored back to back, ring d spans [ringEnds[d - 1], ringEnds[d])
+    private int[] rings = new int[4096];
+    private final int[] ringEnds;
+    private int ringCount;
+
+    // scratch of the distance map pass, pixels per distance and next free position per ring
+    private final int[] distanceCounts;
+    private final int[] ringCursors;
+
+    IslandRings(final int width, final int height, final int maxDistance, final PixelMaskStorage maskStorage) {
+        this.width = width;
+        this.height = height;
+        this.grownMask = maskStorage.allocate(width * height);
+        this.ringEnds = new int[maxDistance + 1];
+        this.distanceCounts = new int[maxDistance + 2];
+        this.ringCursors = new int[maxDistance + 1];
+    }
+
+    /**
+     * Grows the rings around {@code island[0, islandSize)} up to {@code distance}.
+     */
+    void grow(final int[] island, final int islandSize, final int distance) {
+        grow(island, 0, islandSize, distance);
+    }
+
+    /**
+     * Grows the rings around {@code island[from, to)} up to {@code distance}.
+     */
+    void grow(final int[] island, final int from, final int to, final int distance) {
+        if (distance == 1) {
+            // a single ring costs less grown directly than the passes over its box
+            growByNeighbours(island, from, to, distance);
+            return;
+        }
+
+        int minX = width;
+        int maxX = -1;
+        int minY = height;
+        int maxY = -1;
+        for (int i = from; i < to; i++) {
+            final int x = island[i] % width;
+            final int y = island[i] / width;
+            minX = Math.min(minX, x);
+            maxX = Math.max(maxX, x);
+            minY = Math.min(minY, y);
+            maxY = Math.max(maxY, y);
+        }
+
+        final int left = Math.max(0, minX - distance);
+        final int top = Math.max(0, minY - distance);
+        final int boxWidth = Math.min(width - 1, maxX + distance) - left + 1;
+        final int boxHeight = Math.min(height - 1, maxY + distance) - top + 1;
+        final long margin = (2L * distance + 3) * (2L * distance + 3);
+        if ((long) boxWidth * boxHeight <= (long) DISTANCE_MAP_AREA_PER_PIXEL * (to - from) + margin) {
+            growWithDistanceMap(island, from, to, distance, left, top, boxWidth, boxHeight);
+        } else {
+            growByNeighbours(island, from, to, distance);
+        }
+    }
+
+    int start(final int distance) {
+        return ringEnds[distance - 1];
+    }
+
+    int end(final int distance) {
+        return ringEnds[distance];
+    }
+
+    int size(final int distance) {
+        return ringEnds[distance] - ringEnds[distance - 1];
+    }
+
+    int pixel(final int position) {
+        return rings[position];
+    }
+
+    int[] copyOf(final int distance) {
+        return Arrays.copyOfRange(rings, ringEnds[distance - 1], ringEnds[distance]);
+    }
+
+    @Override
+    public void close() {
+        grownMask.close();
+    }
+
+    /**
+     * Computes the chessboard distance to the island over the box with a forward and a backward chamfer pass,
+     * then collects the rings from it. The box holds every pixel within {@code distance} of the island, and
+     * distances within a box are the same as over the whole image.
+     */
+    private void growWithDistanceMap(final int[] island, final int from, final int to, final int distance,
+                                     final int left, final int top, final int boxWidth, final int boxHeight) {
+        final int area = boxWidth * boxHeight;
+        if (distanceMap.length < area) {
+            distanceMap = new byte[Math.max(area, distanceMap.length * 2)];
+        }
+
+        final byte far = (byte) (distance + 1);
+        Arrays.fill(distanceMap, 0, area, far);
+        for (int i = from; i < to; i++) {
+            distanceMap[(island[i] / width - top) * boxWidth + island[i] % width - left] = 0;
+        }
+
+        for (int y = 0; y < boxHeight; y++) {
+            for (int x = 0; x < boxWidth; x++) {
+                final int position = y * boxWidth + x;
+                int nearest = distanceMap[position];
+                if (nearest == 0) {
+                    continue;
+                }
+                if (x > 0) {
+                    nearest = Math.min(nearest, distanceMap[position - 1] + 1);
+                }
+                if (y > 0) {
+                    final int above = position - boxWidth;
+                    nearest = Math.min(nearest, distanceMap[above] + 1);
+                    if (x > 0) {
+                        nearest = Math.min(nearest, distanceMap[above - 1] + 1);
+                    }
+                    if (x < boxWidth - 1) {
+                        nearest = Math.min(nearest, distanceMap[above + 1] + 1);
+                    }
+                }
+                distanceMap[position] = (byte) Math.min(nearest, far);
+            }
+        }
+
+        final int[] counts = distanceCounts;
+        Arrays.fill(counts, 0);
+        for (int y = boxHeight - 1; y >= 0; y--) {
+            for (int x = boxWidth - 1; x >= 0; x--) {
+                final int position = y * boxWidth + x;
+                int nearest = distanceMap[position];
+                if (nearest > 1) {
+                    if (x < boxWidth - 1) {
+                        nearest = Math.min(nearest, distanceMap[position + 1] + 1);
+                    }
+                    if (y < boxHeight - 1) {
+                        final int below = position + boxWidth;
+                        nearest = Math.min(nearest, distanceMap[below] + 1);
+                        if (x < boxWidth - 1) {
+                            nearest = Math.min(nearest, distanceMap[below + 1] + 1);
+                        }
+                        if (x > 0) {
+                            nearest = Math.min(nearest, distanceMap[below - 1] + 1);
+                        }
+                    }
+                    distanceMap[position] = (byte) nearest;
+                }
+                counts[nearest]++;
+            }
+        }
+
+        // counting sort of the box pixels by distance, rings 1 to distance only
+        ringEnds[0] = 0;
+        for (int d = 1; d <= distance; d++) {
+            ringEnds[d] = ringEnds[d - 1] + counts[d];
+        }
+        ringCount = ringEnds[distance];
+        if (rings.length < ringCount) {
+            rings = new int[Math.max(ringCount, rings.length * 2)];
+        }
+
+        final int[] cursors = ringCursors;
+        System.arraycopy(ringEnds, 0, cursors, 0, distance + 1);
+        for (int y = 0; y < boxHeight; y++) {
+            for (int x = 0; x < boxWidth; x++) {
+                final int nearest = distanceMap[y * boxWidth + x];
+                if (nearest > 0 && nearest <= distance) {
+                    rings[cursors[nearest - 1]++] = (top + y) * width + left + x;
+                }
+            }
+        }
+    }
+
+    private void growByNeighbours(final int[] island, final int from, final int to, final int distance) {
+        for (int i = from; i < to; i++) {
+            grownMask.set(island[i]);
+        }
+
+        ringCount = 0;
+        collectRing(island, from, to);
+        ringEnds[1] = ringCount;
+        for (int d = 2; d <= distance; d++) {
+            collectRing(rings, ringEnds[d - 2], ringEnds[d - 1]);
+            ringEnds[d] = ringCount;
+        }
+
+        for (int i = from; i < to; i++) {
+            grownMask.clear(island[i]);
+        }
+        for (int i = 0; i < ringCount; i++) {
+            grownMask.clear(rings[i]);
+        }
+    }
+
+    /**
+     * Appends the not yet grown neighbours of {@code pixels[from, to)} to {@link #rings}.
+     */
+    private void collectRing(final int[] pixels, final int from, final int to) {
+        for (int i = from; i < to; i++) {
+            final int current = pixels[i];
+            final int x = current % width;
+            final int y = current / width;
+            for (int dy = -1; dy <= 1; dy++) {
+                final int ny = y + dy;
+                if (ny < 0 || ny >= height) {
+                    continue;
+                }
+                for (int dx = -1; dx <= 1; dx++) {
+                    final int nx = x + dx;
+                    if (nx < 0 || nx >= width) {
+                        continue;
+                    }
+
+                    final int neighbour = ny * width + nx;
+                    if (!grownMask.get(neighbour)) {
+                        grownMask.set(neighbour);
+                        if (ringCount == rings.length) {
+                            // pixels may be the old buffer, which keeps its contents
+                            rings = Arrays.copyOf(rings, ringCount * 2);
+                        }
+                        rings[ringCount++] = neighbour;
+                    }
+                }
+            }
+        }
+    }
+}
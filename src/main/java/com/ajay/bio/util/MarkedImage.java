@@ -0,0 +1,74 @@
+package com.ajay.bio.util;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Dots counted on a TIFF plate, with the pixels to mark on it, waiting for {@link ImageOutputWriter} to save
+ * them. Holds either the decoded image or, for an image processed in bands, the reader to decode it again from.
+ */
+public class MarkedImage {
+    private final String fileName;
+    private final int count;
+    private final BufferedImage image;
+    private final TiffStripReader reader;
+    private final PixelMarks marks;
+    private final ProcessingMetrics metrics;
+
+    MarkedImage(final String fileName, final int count, final BufferedImage image, final PixelMarks marks,
+                final ProcessingMetrics metrics) {
+        this(fileName, count, image, null, marks, metrics);
+    }
+
+    MarkedImage(final String fileName, final int count, final TiffStripReader reader, final PixelMarks marks,
+                final ProcessingMetrics metrics) {
+        this(fileName, count, null, reader, marks, metrics);
+    }
+
+    private MarkedImage(final String fileName, final int count, final BufferedImage image,
+                        final TiffStripReader reader, final PixelMarks marks, final ProcessingMetrics metrics) {
+        this.fileName = fileName;
+        this.count = count;
+        this.image = image;
+        this.reader = reader;
+        this.marks = marks;
+        this.metrics = metrics;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Metrics of this image so far, the encode time is added once it is saved.
+     */
+    public ProcessingMetrics getMetrics() {
+        return metrics;
+    }
+
+    int width() {
+        return image == null ? reader.width() : image.getWidth();
+    }
+
+    int height() {
+        return image == null ? reader.height() : image.getHeight();
+    }
+
+    /**
+     * The decoded image, or null if it is decoded band by band from {@link #reader()}.
+     */
+    BufferedImage image() {
+        return image;
+    }
+
+    TiffStripReader reader() {
+        return reader;
+    }
+
+    PixelMarks marks() {
+        return marks;
+    }
+}
@@ -0,0 +1,181 @@
+package com.ajay.bio.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Writes the records of many threads to a single file, from a thread of its own. Records are handed over through a
+ * bounded queue and written in batches of {@link #BATCH_SIZE} bytes, so neither the records nor the file are ever
+ * held in memory as a whole.
+ * <p>
+ * Records are written as they are added, or if ordered, by their index. Ordered records which are ahead of the
+ * next one to write wait for it, and {@link #add(int, String)} blocks while a record is more than the capacity
+ * ahead, so the records held stay bounded either way. Every index from 0 up should then be added once, with a null
+ * record for those which have nothing to write.
+ */
+@Log4j2
+public class MergedFileWriter implements AutoCloseable {
+    static final int BATCH_SIZE = 1 << 20;
+
+    private static final Record END = new Record(-1, null);
+
+    private final Path filePath;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BATCH_SIZE);
+    private final BlockingQueue<Record> queue;
+    private final int capacity;
+    private final boolean ordered;
+    private final Thread writerThread;
+
+    // written by the writer thread only, read by adding threads under the lock
+    private final Object lock = new Object();
+    private int nextIndex;
+    private volatile IOException failure;
+
+    public MergedFileWriter(final Path filePath, final int capacity, final boolean ordered) throws IOException {
+        this.filePath = filePath;
+        this.channel = FileChannel.open(filePath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                        StandardOpenOption.TRUNCATE_EXISTING);
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.capacity = capacity;
+        this.ordered = ordered;
+        this.writerThread = new Thread(this::writeRecords, "merged-file-writer");
+        this.writerThread.start();
+    }
+
+    /**
+     * Hands {@code record} over to be written, {@code record} may be null if ordered. Throws the failure of the
+     * writer thread if writing failed.
+     */
+    public void add(final int index, final String record) throws IOException, InterruptedException {
+        if (ordered) {
+            synchronized (lock) {
+                while (index >= nextIndex + capacity && failure == null) {
+                    lock.wait();
+                }
+            }
+        }
+        throwIfFailed();
+        queue.put(new Record(index, record));
+    }
+
+    /**
+     * Writes what is left once every record was added and closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            queue.put(END);
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            writerThread.interrupt();
+            throw new IOException("Interrupted while writing file - " + filePath, e);
+        } finally {
+            channel.close();
+        }
+        throwIfFailed();
+    }
+
+    private void throwIfFailed() throws IOException {
+        if (failure != null) {
+            throw new IOException("Failed to write file - " + filePath, failure);
+        }
+    }
+
+    private void writeRecords() {
+        final Map<Integer, String> pendingRecords = new TreeMap<>();
+        try {
+            Record record;
+            while ((record = queue.take()) != END) {
+                if (failure != null) {
+                    // keep taking records, so adding threads are not left blocked on a full queue
+                    continue;
+                }
+
+                try {
+                    if (!ordered) {
+                        append(record.text);
+                        continue;
+                    }
+
+                    pendingRecords.put(record.index, record.text);
+                    while (pendingRecords.containsKey(nextIndex)) {
+                        append(pendingRecords.remove(nextIndex));
+                        synchronized (lock) {
+                            ++nextIndex;
+                            lock.notifyAll();
+                        }
+                    }
+                } catch (IOException e) {
+                    fail(e);
+                }
+            }
+
+            if (failure == null) {
+                // records missing an index, if any, leave gaps behind them
+                for (final String text : pendingRecords.values()) {
+                    append(text);
+                }
+                flush();
+            }
+        } catch (IOException e) {
+            fail(e);
+        } catch (InterruptedException e) {
+            fail(new IOException("Interrupted while writing file - " + filePath, e));
+        }
+    }
+
+    private void fail(final IOException e) {
+        log.debug("Failed to write merged file - ", e);
+        synchronized (lock) {
+            failure = e;
+            lock.notifyAll();
+        }
+    }
+
+    private void append(final String text) throws IOException {
+        if (text == null) {
+            return;
+        }
+
+        final byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        int offset = 0;
+        while (offset < bytes.length) {
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+            final int length = Math.min(buffer.remaining(), bytes.length - offset);
+            buffer.put(bytes, offset, length);
+            offset += length;
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private static class Record {
+        private final int index;
+        private final String text;
+
+        Record(final int index, final String text) {
+            this.index = index;
+            this.text = text;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.ajay.bio.util;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Pixels to colour on the output image, kept apart from the image so it can be drawn band by band or saved on
+ * its own. Pixels are row major indexes; strategies add them in ascending order, or call {@link #sort()} once
+ * done. Not thread safe.
+ */
+class PixelMarks {
+    private final int width;
+
+    private int[] pixels = new int[1024];
+    private int[] colours = new int[1024];
+    private int size;
+
+    PixelMarks(final int width) {
+        this.width = width;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void add(final int pixel, final int rgb) {
+        if (size == pixels.length) {
+            pixels = Arrays.copyOf(pixels, size * 2);
+            colours = Arrays.copyOf(colours, size * 2);
+        }
+        pixels[size] = pixel;
+        colours[size] = rgb;
+        size++;
+    }
+
+    /**
+     * Orders the pixels by index, for pixels added out of order. A pixel is expected to be added only once.
+     */
+    void sort() {
+        final long[] packed = new long[size];
+        for (int i = 0; i < size; i++) {
+            packed[i] = ((long) pixels[i] << 32) | (colours[i] & 0xFFFFFFFFL);
+        }
+        Arrays.sort(packed);
+        for (int i = 0; i < size; i++) {
+            pixels[i] = (int) (packed[i] >>> 32);
+            colours[i] = (int) packed[i];
+        }
+    }
+
+    /**
+     * Colours the marked pixels falling on {@code image}, a band of the full image starting at {@code firstRow}.
+     */
+    void paint(final BufferedImage image, final int firstRow) {
+        final int start = firstRow * width;
+        final int end = (firstRow + image.getHeight()) * width;
+        int i = Arrays.binarySearch(pixels, 0, size, start);
+        for (i = i < 0 ? -i - 1 : i; i < size && pixels[i] < end; i++) {
+            image.setRGB(pixels[i] % width, pixels[i] / width - firstRow, colours[i]);
+        }
+    }
+
+    /**
+     * Writes the marked pixels as CSV, one line per horizontal run of pixels of the same colour.
+     */
+    void writeRuns(final Writer writer) throws IOException {
+        writer.write("Row,Column,Length,Colour" + System.lineSeparator());
+        int i = 0;
+        while (i < size) {
+            int end = i + 1;
+            while (end < size && pixels[end] == pixels[end - 1] + 1 && pixels[end] % width != 0
+                           && colours[end] == colours[i]) {
+                end++;
+            }
+
+            writer.write(String.format("%d,%d,%d,#%06X%n", pixels[i] / width, pixels[i] % width, end - i,
+                                       colours[i] & 0xFFFFFF));
+            i = end;
+        }
+    }
+}
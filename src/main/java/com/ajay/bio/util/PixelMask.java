@@ -0,0 +1,29 @@
+package com.ajay.bio.util;
+
+/**
+ * One bit per pixel, addressed by packed pixel index ({@code y * width + x}). Masks start cleared and are
+ * allocated through {@link PixelMaskStorage}; closing a mask hands its memory back, after which it should
+ * not be used. Reads may run concurrently, writes need the caller's synchronisation.
+ */
+interface PixelMask extends AutoCloseable {
+
+    boolean get(int index);
+
+    void set(int index);
+
+    void clear(int index);
+
+    /**
+     * Returns the first set index at or after {@code from}, or -1 if there is none.
+     */
+    int nextSetBit(int from);
+
+    /**
+     * Returns the 64 bits from index {@code from} on, bit {@code i} being index {@code from + i}. Bits past the
+     * end of the mask read as clear.
+     */
+    long bitsFrom(int from);
+
+    @Override
+    void close();
+}
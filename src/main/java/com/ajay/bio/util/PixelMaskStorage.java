@@ -0,0 +1,98 @@
+package com.ajay.bio.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Where the pixel masks of the dot counting engines live.
+ * <ul>
+ *     <li>{@link #HEAP} - {@code long[]} words on the heap.</li>
+ *     <li>{@link #DIRECT} - direct buffers outside the heap. Up to {@value #MAX_IDLE_BUFFERS} closed buffers
+ *     are kept and handed to the next masks, as direct memory is only given back after a garbage collection;
+ *     a batch of images of similar size therefore reuses the same few buffers. Tools drop the kept buffers
+ *     with {@link #releaseIdleBuffers()} once their run is over.</li>
+ *     <li>{@link #MAPPED} - scratch files in the temporary directory mapped in memory, the operating system
+ *     pages them out when memory is short. Files are deleted once their mask is closed.</li>
+ * </ul>
+ */
+public enum PixelMaskStorage {
+    HEAP {
+        @Override
+        PixelMask allocate(final int size) {
+            return new HeapPixelMask(size);
+        }
+    },
+    DIRECT {
+        @Override
+        PixelMask allocate(final int size) {
+            final ByteBuffer buffer = takeIdleBuffer(BufferPixelMask.byteSize(size));
+            return new BufferPixelMask(buffer, size, () -> returnIdleBuffer(buffer));
+        }
+    },
+    MAPPED {
+        @Override
+        PixelMask allocate(final int size) {
+            try {
+                final File file = File.createTempFile("vati-mask-", ".bin");
+                file.deleteOnExit();
+                final MappedByteBuffer buffer;
+                try (final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+                    // a new file reads as zeros, the mapping stays valid once the channel is closed
+                    buffer = randomAccessFile.getChannel()
+                                             .map(FileChannel.MapMode.READ_WRITE, 0, BufferPixelMask.byteSize(size));
+                }
+                return new BufferPixelMask(buffer, size, () -> file.delete());
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to map a pixel mask file", e);
+            }
+        }
+    };
+
+    // enough for the masks of a few images counted at once, buffers closed beyond this are left to the GC
+    private static final int MAX_IDLE_BUFFERS = 16;
+
+    // direct buffers of closed masks, guarded by the class lock
+    private static final List<ByteBuffer> IDLE_BUFFERS = new ArrayList<>();
+
+    /**
+     * Returns a cleared mask of {@code size} pixels.
+     */
+    abstract PixelMask allocate(int size);
+
+    /**
+     * Drops the direct buffers kept for the next masks, so their memory is given back once garbage collected.
+     */
+    public static synchronized void releaseIdleBuffers() {
+        IDLE_BUFFERS.clear();
+    }
+
+    private static synchronized ByteBuffer takeIdleBuffer(final int byteSize) {
+        for (int i = 0; i < IDLE_BUFFERS.size(); i++) {
+            final ByteBuffer buffer = IDLE_BUFFERS.get(i);
+            if (buffer.capacity() >= byteSize) {
+                IDLE_BUFFERS.remove(i);
+                for (int position = 0; position < byteSize; position += Long.BYTES) {
+                    buffer.putLong(position, 0L);
+                }
+                return buffer;
+            }
+        }
+
+        // images got bigger, buffers too small for them are left to the garbage collector
+        IDLE_BUFFERS.clear();
+        return ByteBuffer.allocateDirect(byteSize);
+    }
+
+    private static synchronized void returnIdleBuffer(final ByteBuffer buffer) {
+        if (IDLE_BUFFERS.size() < MAX_IDLE_BUFFERS) {
+            IDLE_BUFFERS.add(buffer);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.ajay.bio.util;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes an 8 bit RGB, or RGBA if the image has alpha, PNG file with a chosen deflate level.
+ * <p>
+ * The PNG writer of Java 8 always deflates at {@link Deflater#BEST_COMPRESSION} and has no compression setting, so
+ * this encoder is what makes a fast level possible. Rows are pulled a band at a time through
+ * {@link RenderedImage#copyData(WritableRaster)}, so a {@link StripedImage} is decoded band by band here too. Each
+ * row is written with the Sub filter, which is cheap and keeps photos small at low levels.
+ */
+final class PngEncoder {
+    private static final byte[] SIGNATURE = {(byte) 137, 'P', 'N', 'G', '\r', '\n', 26, '\n'};
+    private static final int BAND_HEIGHT = 64;
+    private static final int IDAT_SIZE = 1 << 16;
+    private static final int FILTER_SUB = 1;
+
+    private PngEncoder() {
+        // hide constructor
+    }
+
+    /**
+     * Writes {@code image} to {@code output}, replacing it, deflated at {@code level} from 0 to 9.
+     */
+    static void write(final RenderedImage image, final int level, final File output) throws IOException {
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final boolean alpha = image.getColorModel().hasAlpha();
+        final int channels = alpha ? 4 : 3;
+
+        try (final DataOutputStream stream = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(output)))) {
+            stream.write(SIGNATURE);
+
+            final byte[] headerData = new byte[13];
+            writeInt(headerData, 0, width);
+            writeInt(headerData, 4, height);
+            headerData[8] = 8;
+            headerData[9] = (byte) (alpha ? 6 : 2);
+            writeChunk(stream, "IHDR", headerData, headerData.length);
+
+            final Deflater deflater = new Deflater(level);
+            try (final OutputStream idat = new DeflaterOutputStream(new IdatStream(stream), deflater, IDAT_SIZE)) {
+                final int[] argb = new int[width * BAND_HEIGHT];
+                final byte[] scanline = new byte[1 + width * channels];
+                for (int bandStart = 0; bandStart < height; bandStart += BAND_HEIGHT) {
+                    final int rows = Math.min(BAND_HEIGHT, height - bandStart);
+                    readArgb(image, bandStart, rows, argb);
+                    for (int row = 0; row < rows; row++) {
+                        filterRow(argb, row * width, width, channels, scanline);
+                        idat.write(scanline);
+                    }
+                }
+            } finally {
+                deflater.end();
+            }
+
+            writeChunk(stream, "IEND", new byte[0], 0);
+        }
+    }
+
+    private static void readArgb(final RenderedImage image, final int firstRow, final int rows, final int[] argb) {
+        final ColorModel colorModel = image.getColorModel();
+        final WritableRaster raster = colorModel.createCompatibleWritableRaster(image.getWidth(), rows);
+        image.copyData(raster.createWritableTranslatedChild(0, firstRow));
+        final BufferedImage band = new BufferedImage(colorModel, raster, colorModel.isAlphaPremultiplied(), null);
+        if (band.getType() == BufferedImage.TYPE_INT_RGB || band.getType() == BufferedImage.TYPE_INT_ARGB) {
+            // already packed as getRGB returns them, without its per pixel colour model lookup
+            raster.getDataElements(0, 0, image.getWidth(), rows, argb);
+        } else {
+            band.getRGB(0, 0, image.getWidth(), rows, argb, 0, image.getWidth());
+        }
+    }
+
+    private static void filterRow(final int[] argb, final int offset, final int width, final int channels,
+                                  final byte[] scanline) {
+        scanline[0] = FILTER_SUB;
+        int previous = 0;
+        int index = 1;
+        for (int x = 0; x < width; x++) {
+            final int pixel = argb[offset + x];
+            scanline[index++] = (byte) ((pixel >> 16) - (previous >> 16));
+            scanline[index++] = (byte) ((pixel >> 8) - (previous >> 8));
+            scanline[index++] = (byte) (pixel - previous);
+            if (channels == 4) {
+                scanline[index++] = (byte) ((pixel >>> 24) - (previous >>> 24));
+            }
+            previous = pixel;
+        }
+    }
+
+    private static void writeChunk(final DataOutputStream stream, final String type, final byte[] data,
+                                   final int length) throws IOException {
+        final byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        final CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+
+        stream.writeInt(length);
+        stream.write(typeBytes);
+        stream.write(data, 0, length);
+        stream.writeInt((int) crc.getValue());
+    }
+
+    private static void writeInt(final byte[] data, final int offset, final int value) {
+        data[offset] = (byte) (value >>> 24);
+        data[offset + 1] = (byte) (value >>> 16);
+        data[offset + 2] = (byte) (value >>> 8);
+        data[offset + 3] = (byte) value;
+    }
+
+    /**
+     * Cuts the deflated data into IDAT chunks of up to {@link #IDAT_SIZE} bytes. Closing it writes the last chunk
+     * but leaves the file open.
+     */
+    private static class IdatStream extends OutputStream {
+        private final DataOutputStream stream;
+        private final byte[] buffer = new byte[IDAT_SIZE];
+        private int length;
+
+        IdatStream(final DataOutputStream stream) {
+            this.stream = stream;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            if (length == buffer.length) {
+                flushChunk();
+            }
+            buffer[length++] = (byte) b;
+        }
+
+        @Override
+        public void write(final byte[] bytes, final int offset, final int count) throws IOException {
+            int written = 0;
+            while (written < count) {
+                if (length == buffer.length) {
+                    flushChunk();
+                }
+                final int copied = Math.min(count - written, buffer.length - length);
+                System.arraycopy(bytes, offset + written, buffer, length, copied);
+                length += copied;
+                written += copied;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (length > 0) {
+                flushChunk();
+            }
+        }
+
+        private void flushChunk() throws IOException {
+            writeChunk(stream, "IDAT", buffer, length);
+            length = 0;
+        }
+    }
+}
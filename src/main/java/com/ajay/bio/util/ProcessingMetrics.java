@@ -0,0 +1,126 @@
+package com.ajay.bio.util;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Where the time of a single image goes: decode, count and encode time, the time of every pass and of the
+ * island phases of the scan, the islands examined, accepted and rejected, and the bytes allocated by the
+ * threads which processed the image.
+ * <p>
+ * Timers are read once per island or phase, never per pixel. The island phases and counters are filled by the
+ * serial scan and {@link SingleThresholdStrategy}; tiled and component tree passes report their time and
+ * accepted islands only. The image is handed from thread to thread through executors, so no locking is needed.
+ */
+public class ProcessingMetrics {
+    public static final String CSV_HEADER = "FileName,Count,DecodeMillis,CountMillis,EncodeMillis,"
+                                                    + "ExpandIslandMillis,CollisionCheckMillis,BoundaryToMarkMillis,"
+                                                    + "ValidateBoundaryMillis,IslandsExamined,IslandsAccepted,"
+                                                    + "RejectedCollision,RejectedSize,RejectedBoundary,"
+                                                    + "AllocatedBytes,PassMillis,PassCounts";
+
+    private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+
+    private final long[] phaseNanos = new long[Phase.values().length];
+    private final long[] rejectedIslands = new long[Rejection.values().length];
+    private final List<Long> passNanos = new ArrayList<>();
+    private final List<Integer> passCounts = new ArrayList<>();
+    private long islandsExamined;
+    private long islandsAccepted;
+    private long allocatedBytes;
+    private boolean allocationMeasured;
+
+    public enum Phase {
+        DECODE,
+        COUNT,
+        ENCODE,
+        EXPAND_ISLAND,
+        COLLISION_CHECK,
+        BOUNDARY_TO_MARK,
+        VALIDATE_BOUNDARY
+    }
+
+    public enum Rejection {
+        /** overlaps an island accepted by an earlier pass */
+        COLLISION,
+        /** too small or too large */
+        SIZE,
+        /** its surroundings are not background */
+        BOUNDARY
+    }
+
+    /**
+     * Bytes allocated so far by the current thread, or -1 if the JVM does not tell.
+     */
+    static long currentThreadAllocatedBytes() {
+        if (THREAD_MX_BEAN instanceof com.sun.management.ThreadMXBean) {
+            final com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) THREAD_MX_BEAN;
+            if (threadMXBean.isThreadAllocatedMemorySupported() && threadMXBean.isThreadAllocatedMemoryEnabled()) {
+                return threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    void addTime(final Phase phase, final long nanos) {
+        phaseNanos[phase.ordinal()] += nanos;
+    }
+
+    void addPass(final long nanos, final int accepted) {
+        passNanos.add(nanos);
+        passCounts.add(accepted);
+        phaseNanos[Phase.COUNT.ordinal()] += nanos;
+    }
+
+    void islandExamined() {
+        ++islandsExamined;
+    }
+
+    void islandAccepted() {
+        ++islandsAccepted;
+    }
+
+    void islandRejected(final Rejection rejection) {
+        ++rejectedIslands[rejection.ordinal()];
+    }
+
+    /**
+     * Adds what the current thread allocated since {@link #currentThreadAllocatedBytes()} returned
+     * {@code allocatedBefore}.
+     */
+    void addAllocatedSince(final long allocatedBefore) {
+        final long allocatedAfter = currentThreadAllocatedBytes();
+        if (allocatedBefore >= 0 && allocatedAfter >= 0) {
+            allocatedBytes += allocatedAfter - allocatedBefore;
+            allocationMeasured = true;
+        }
+    }
+
+    public long getMillis(final Phase phase) {
+        return TimeUnit.NANOSECONDS.toMillis(phaseNanos[phase.ordinal()]);
+    }
+
+    /**
+     * One line of the metrics CSV, see {@link #CSV_HEADER}. Bytes allocated are left empty if not measured.
+     */
+    public String toCsvLine(final String fileName, final int count) {
+        return String.join(",", fileName, Integer.toString(count), Long.toString(getMillis(Phase.DECODE)),
+                           Long.toString(getMillis(Phase.COUNT)), Long.toString(getMillis(Phase.ENCODE)),
+                           Long.toString(getMillis(Phase.EXPAND_ISLAND)),
+                           Long.toString(getMillis(Phase.COLLISION_CHECK)),
+                           Long.toString(getMillis(Phase.BOUNDARY_TO_MARK)),
+                           Long.toString(getMillis(Phase.VALIDATE_BOUNDARY)), Long.toString(islandsExamined),
+                           Long.toString(islandsAccepted),
+                           Long.toString(rejectedIslands[Rejection.COLLISION.ordinal()]),
+                           Long.toString(rejectedIslands[Rejection.SIZE.ordinal()]),
+                           Long.toString(rejectedIslands[Rejection.BOUNDARY.ordinal()]),
+                           allocationMeasured ? Long.toString(allocatedBytes) : "",
+                           passNanos.stream().map(nanos -> Long.toString(TimeUnit.NANOSECONDS.toMillis(nanos)))
+                                    .collect(Collectors.joining(";")),
+                           passCounts.stream().map(String::valueOf).collect(Collectors.joining(";")));
+    }
+}
@@ -0,0 +1,116 @@
+package com.ajay.bio.util;
+
+/**
+ * Cuts the low quality ends off a {@link SequenceRead}, the ends of Sanger reads are mostly noise which would
+ * only slow down the analysis and alignment of the read.
+ */
+public class QualityTrimmer {
+    private final Method method;
+    private final double errorLimit;
+    private final int windowSize;
+    private final int minQuality;
+
+    /**
+     * How the part of the read to keep is found.
+     */
+    public enum Method {
+        /** the read is kept whole */
+        NONE,
+        /**
+         * modified Mott algorithm, as in phred: each base scores the error limit minus its error probability,
+         * the part with the highest total score is kept
+         */
+        MOTT,
+        /**
+         * the part from the first to the last window of bases whose average quality is at least the minimum
+         * quality is kept
+         */
+        SLIDING_WINDOW
+    }
+
+    /**
+     * {@code errorLimit} is the error probability used by {@link Method#MOTT}, {@code windowSize} and
+     * {@code minQuality} are used by {@link Method#SLIDING_WINDOW}.
+     */
+    public QualityTrimmer(final Method method, final double errorLimit, final int windowSize, final int minQuality) {
+        this.method = method;
+        this.errorLimit = errorLimit;
+        this.windowSize = windowSize;
+        this.minQuality = minQuality;
+    }
+
+    public boolean isEnabled() {
+        return method != Method.NONE;
+    }
+
+    /**
+     * Returns the part of {@code read} to keep, which may be empty. The read should have quality values unless
+     * trimming is disabled.
+     */
+    public SequenceRead trim(final SequenceRead read) {
+        if (method == Method.NONE) {
+            return read;
+        }
+
+        if (read.getQualityValues() == null) {
+            throw new IllegalArgumentException("No quality values to trim read - " + read.getName());
+        }
+
+        return method == Method.MOTT ? trimMott(read) : trimSlidingWindow(read);
+    }
+
+    private SequenceRead trimMott(final SequenceRead read) {
+        final byte[] qualityValues = read.getQualityValues();
+        double bestScore = 0;
+        int bestStart = 0;
+        int bestEnd = 0;
+
+        double score = 0;
+        int start = 0;
+        for (int i = 0; i < qualityValues.length; i++) {
+            score += errorLimit - Math.pow(10, -qualityValues[i] / 10.0);
+            if (score <= 0) {
+                score = 0;
+                start = i + 1;
+            } else if (score > bestScore) {
+                bestScore = score;
+                bestStart = start;
+                bestEnd = i + 1;
+            }
+        }
+
+        return read.subRead(bestStart, bestEnd);
+    }
+
+    private SequenceRead trimSlidingWindow(final SequenceRead read) {
+        final byte[] qualityValues = read.getQualityValues();
+        final int window = Math.min(windowSize, qualityValues.length);
+        if (window == 0) {
+            return read;
+        }
+
+        // windows are compared by their sum, which saves a division per window
+        final int minSum = minQuality * window;
+        int sum = 0;
+        for (int i = 0; i < window; i++) {
+            sum += qualityValues[i];
+        }
+
+        int start = -1;
+        int end = 0;
+        for (int windowStart = 0; ; windowStart++) {
+            if (sum >= minSum) {
+                if (start < 0) {
+                    start = windowStart;
+                }
+                end = windowStart + window;
+            }
+            if (windowStart + window == qualityValues.length) {
+                break;
+            }
+            sum += qualityValues[windowStart + window] - qualityValues[windowStart];
+        }
+
+        return start < 0 ? read.subRead(0, 0) : read.subRead(start, end);
+    }
+}
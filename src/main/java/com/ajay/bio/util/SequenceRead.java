@@ -0,0 +1,55 @@
+package com.ajay.bio.util;
+
+import java.util.Arrays;
+
+/**
+ * Bases called for a trace, with the quality value of each base if they were read.
+ */
+public class SequenceRead {
+    private final String name;
+    private final String bases;
+    private final byte[] qualityValues;
+
+    /**
+     * {@code qualityValues} are on the Phred scale, one per base, or null if not read.
+     */
+    public SequenceRead(final String name, final String bases, final byte[] qualityValues) {
+        if (qualityValues != null && qualityValues.length != bases.length()) {
+            throw new IllegalArgumentException(String.format("%d quality values for %d bases of read %s",
+                                                             qualityValues.length, bases.length(), name));
+        }
+        this.name = name;
+        this.bases = bases;
+        this.qualityValues = qualityValues;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getBases() {
+        return bases;
+    }
+
+    /**
+     * Quality values of the bases, or null if they were not read.
+     */
+    public byte[] getQualityValues() {
+        return qualityValues;
+    }
+
+    public int length() {
+        return bases.length();
+    }
+
+    /**
+     * The bases from {@code start} up to {@code end}, excluded, with their quality values.
+     */
+    public SequenceRead subRead(final int start, final int end) {
+        if (start == 0 && end == length()) {
+            return this;
+        }
+        return new SequenceRead(name, bases.substring(start, end),
+                                qualityValues == null ? null : Arrays.copyOfRange(qualityValues, start, end));
+    }
+}
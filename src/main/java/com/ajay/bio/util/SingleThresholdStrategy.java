@@ -0,0 +1,173 @@
+package com.ajay.bio.util;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Quick look strategy with the rules of {@link BaseStrategy#markDotRedIfAboveThreshold}, run once with a single
+ * threshold. Every island of pixels at or above the threshold is
+ * <ul>
+ *     <li>counted and coloured red if one of its pixels is brighter than four times the threshold,</li>
+ *     <li>coloured yellow if larger than {@value BaseStrategy#MAX_BLOCK_SIZE_THRESHOLD} pixels, ignored if
+ *     smaller than {@value BaseStrategy#MIN_BLOCK_SIZE_THRESHOLD},</li>
+ *     <li>otherwise counted and coloured red if the pixels {@value #BACKGROUND_DISTANCE} away from its left,
+ *     right, top and bottom most pixels are background, or coloured blue if not.</li>
+ * </ul>
+ * Pixels are read once into an {@code int[]} and islands are grown with an {@code int[]} stack, each pixel
+ * being pushed at most once, so a plate takes a single scan instead of the eight passes of
+ * {@link ImageProcessingStrategyTwo}.
+ */
+public class SingleThresholdStrategy extends BaseStrategy implements ImageProcessingStrategy {
+    private static final int BACKGROUND_DISTANCE = 5;
+
+    private final int threshold;
+    private final PixelMaskStorage maskStorage;
+
+    public SingleThresholdStrategy(final int threshold, final PixelMaskStorage maskStorage) {
+        this.threshold = threshold;
+        this.maskStorage = maskStorage;
+    }
+
+    @Override
+    public MarkedImage processTifFile(final Path inputFile) throws Exception {
+        final ProcessingMetrics metrics = new ProcessingMetrics();
+        final long allocatedBefore = ProcessingMetrics.currentThreadAllocatedBytes();
+        final long startTime = System.nanoTime();
+
+        final BufferedImage tiffImage = readTifFile(inputFile.toFile());
+        final int width = tiffImage.getWidth();
+        final int height = tiffImage.getHeight();
+        final int[] pixels = tiffImage.getRGB(0, 0, width, height, null, 0, width);
+        final long countStartTime = System.nanoTime();
+        metrics.addTime(ProcessingMetrics.Phase.DECODE, countStartTime - startTime);
+
+        final PixelMarks marks = new PixelMarks(width);
+        final int count = countDots(pixels, width, height, marks, metrics);
+        marks.sort();
+        metrics.addPass(System.nanoTime() - countStartTime, count);
+        metrics.addAllocatedSince(allocatedBefore);
+
+        return new MarkedImage(inputFile.toFile().getName(), count, tiffImage, marks, metrics);
+    }
+
+    @Override
+    public String getParameters() {
+        return String.format("SINGLE_THRESHOLD threshold=%d blockSize=[%d,%d] backgroundDistance=%d", threshold,
+                             MIN_BLOCK_SIZE_THRESHOLD, MAX_BLOCK_SIZE_THRESHOLD, BACKGROUND_DISTANCE);
+    }
+
+    /**
+     * Counts the dots of the packed RGB {@code pixels} and colours their islands, in place and in {@code marks}.
+     */
+    int countDots(final int[] pixels, final int width, final int height, final PixelMarks marks,
+                  final ProcessingMetrics metrics) {
+        int[] stack = new int[1024];
+        int[] island = new int[1024];
+        int count = 0;
+
+        try (final PixelMask visited = maskStorage.allocate(width * height)) {
+            for (int seed = 0; seed < pixels.length; seed++) {
+                if (visited.get(seed) || !isCandidate(pixels[seed])) {
+                    continue;
+                }
+
+                int islandSize = 0;
+                boolean reallyBright = false;
+                int left = seed;
+                int right = seed;
+                int bottom = seed;
+
+                int top = 0;
+                stack[top++] = seed;
+                visited.set(seed);
+                while (top > 0) {
+                    final int current = stack[--top];
+                    if (islandSize == island.length) {
+                        island = Arrays.copyOf(island, islandSize * 2);
+                    }
+                    island[islandSize++] = current;
+
+                    reallyBright |= getGrayScale(pixels[current]) > threshold * 4;
+
+                    final int x = current % width;
+                    final int y = current / width;
+                    left = x < left % width ? current : left;
+                    right = x > right % width ? current : right;
+                    bottom = Math.max(bottom, current);
+
+                    for (int ny = Math.max(0, y - 1); ny <= Math.min(height - 1, y + 1); ny++) {
+                        for (int nx = Math.max(0, x - 1); nx <= Math.min(width - 1, x + 1); nx++) {
+                            final int neighbour = ny * width + nx;
+                            if (!visited.get(neighbour) && isCandidate(pixels[neighbour])) {
+                                visited.set(neighbour);
+                                if (top == stack.length) {
+                                    stack = Arrays.copyOf(stack, top * 2);
+                                }
+                                stack[top++] = neighbour;
+                            }
+                        }
+                    }
+                }
+
+                metrics.islandExamined();
+                final int colour;
+                if (reallyBright) {
+                    colour = Color.RED.getRGB();
+                    ++count;
+                    metrics.islandAccepted();
+                } else if (islandSize > MAX_BLOCK_SIZE_THRESHOLD) {
+                    colour = Color.YELLOW.getRGB();
+                    metrics.islandRejected(ProcessingMetrics.Rejection.SIZE);
+                } else if (islandSize < MIN_BLOCK_SIZE_THRESHOLD) {
+                    metrics.islandRejected(ProcessingMetrics.Rejection.SIZE);
+                    continue;
+                } else if (isDarkBackground(pixels, width, height, left, right, seed, bottom)) {
+                    colour = Color.RED.getRGB();
+                    ++count;
+                    metrics.islandAccepted();
+                } else {
+                    colour = Color.BLUE.getRGB();
+                    metrics.islandRejected(ProcessingMetrics.Rejection.BOUNDARY);
+                }
+
+                for (int i = 0; i < islandSize; i++) {
+                    pixels[island[i]] = colour;
+                    marks.add(island[i], colour);
+                }
+            }
+        }
+
+        return count;
+    }
+
+    private boolean isCandidate(final int rgb) {
+        return !alreadyColored(rgb) && isPixelAboveThreshold(rgb, threshold);
+    }
+
+    /**
+     * Checks the pixels {@value #BACKGROUND_DISTANCE} away from the extreme pixels of an island, as
+     * {@link BaseStrategy#isDarkBackground} does. The seed is the top most pixel, scanning in row order.
+     */
+    private boolean isDarkBackground(final int[] pixels, final int width, final int height, final int left,
+                                     final int right, final int topMost, final int bottomMost) {
+        if (left % width - BACKGROUND_DISTANCE >= 0
+                    && !isPixelBelowThreshold(pixels[left - BACKGROUND_DISTANCE], threshold)) {
+            return false;
+        }
+
+        if (right % width + BACKGROUND_DISTANCE < width
+                    && !isPixelBelowThreshold(pixels[right + BACKGROUND_DISTANCE], threshold)) {
+            return false;
+        }
+
+        if (topMost / width - BACKGROUND_DISTANCE >= 0
+                    && !isPixelBelowThreshold(pixels[topMost - BACKGROUND_DISTANCE * width], threshold)) {
+            return false;
+        }
+
+        return bottomMost / width + BACKGROUND_DISTANCE >= height
+                       || isPixelBelowThreshold(pixels[bottomMost + BACKGROUND_DISTANCE * width], threshold);
+    }
+}
@@ -0,0 +1,183 @@
+package com.ajay.bio.util;
+
+import java.awt.Image;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.util.Vector;
+
+import org.apache.commons.imaging.ImageReadException;
+
+/**
+ * Read only view of a TIFF image which is decoded band by band as its rows are asked for, with a
+ * {@link BandPainter} drawing on each band once decoded.
+ * <p>
+ * Image writers such as the PNG one pull the image a row at a time through {@link #getData(Rectangle)}, so
+ * writing it keeps a single band in memory. The image is one tile as far as the {@link RenderedImage}
+ * contract goes; asking for that tile or for all the data decodes the whole image.
+ */
+class StripedImage implements RenderedImage {
+    private final TiffStripReader reader;
+    private final BandPainter painter;
+    private final ColorModel colorModel;
+    private final SampleModel sampleModel;
+
+    private BufferedImage band;
+    private int bandStart;
+
+    StripedImage(final TiffStripReader reader, final BandPainter painter) throws ImageReadException, IOException {
+        this.reader = reader;
+        this.painter = painter;
+        loadBand(0);
+        this.colorModel = band.getColorModel();
+        this.sampleModel = band.getSampleModel().createCompatibleSampleModel(reader.width(), reader.height());
+    }
+
+    /**
+     * Draws on a freshly decoded band, which starts at row {@code firstRow} of the image.
+     */
+    interface BandPainter {
+        void paint(BufferedImage band, int firstRow);
+    }
+
+    @Override
+    public Vector<RenderedImage> getSources() {
+        return null;
+    }
+
+    @Override
+    public Object getProperty(final String name) {
+        return Image.UndefinedProperty;
+    }
+
+    @Override
+    public String[] getPropertyNames() {
+        return null;
+    }
+
+    @Override
+    public ColorModel getColorModel() {
+        return colorModel;
+    }
+
+    @Override
+    public SampleModel getSampleModel() {
+        return sampleModel;
+    }
+
+    @Override
+    public int getWidth() {
+        return reader.width();
+    }
+
+    @Override
+    public int getHeight() {
+        return reader.height();
+    }
+
+    @Override
+    public int getMinX() {
+        return 0;
+    }
+
+    @Override
+    public int getMinY() {
+        return 0;
+    }
+
+    @Override
+    public int getNumXTiles() {
+        return 1;
+    }
+
+    @Override
+    public int getNumYTiles() {
+        return 1;
+    }
+
+    @Override
+    public int getMinTileX() {
+        return 0;
+    }
+
+    @Override
+    public int getMinTileY() {
+        return 0;
+    }
+
+    @Override
+    public int getTileWidth() {
+        return getWidth();
+    }
+
+    @Override
+    public int getTileHeight() {
+        return getHeight();
+    }
+
+    @Override
+    public int getTileGridXOffset() {
+        return 0;
+    }
+
+    @Override
+    public int getTileGridYOffset() {
+        return 0;
+    }
+
+    @Override
+    public Raster getTile(final int tileX, final int tileY) {
+        return getData();
+    }
+
+    @Override
+    public Raster getData() {
+        return getData(new Rectangle(0, 0, getWidth(), getHeight()));
+    }
+
+    @Override
+    public Raster getData(final Rectangle rect) {
+        final WritableRaster raster = Raster.createWritableRaster(
+                sampleModel.createCompatibleSampleModel(rect.width, rect.height), new Point(rect.x, rect.y));
+        return copyData(raster);
+    }
+
+    @Override
+    public WritableRaster copyData(final WritableRaster raster) {
+        final WritableRaster target = raster == null
+                                              ? colorModel.createCompatibleWritableRaster(getWidth(), getHeight())
+                                              : raster;
+        final Rectangle bounds = target.getBounds().intersection(new Rectangle(0, 0, getWidth(), getHeight()));
+
+        int row = bounds.y;
+        while (row < bounds.y + bounds.height) {
+            if (row < bandStart || row >= bandStart + band.getHeight()) {
+                try {
+                    loadBand(row);
+                } catch (ImageReadException | IOException e) {
+                    throw new IllegalStateException("Failed to decode the TIFF band at row " + row, e);
+                }
+            }
+
+            final int rows = Math.min(bounds.y + bounds.height, bandStart + band.getHeight()) - row;
+            final Raster source = band.getRaster().createChild(bounds.x, row - bandStart, bounds.width, rows,
+                                                               bounds.x, row, null);
+            target.setRect(source);
+            row += rows;
+        }
+
+        return target;
+    }
+
+    private void loadBand(final int row) throws ImageReadException, IOException {
+        band = reader.readBand(row);
+        bandStart = reader.bandStart(row);
+        painter.paint(band, bandStart);
+    }
+}
@@ -0,0 +1,83 @@
+package com.ajay.bio.util;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+
+import org.apache.commons.imaging.FormatCompliance;
+import org.apache.commons.imaging.ImageReadException;
+import org.apache.commons.imaging.common.bytesource.ByteSourceFile;
+import org.apache.commons.imaging.formats.tiff.TiffDirectory;
+import org.apache.commons.imaging.formats.tiff.TiffField;
+import org.apache.commons.imaging.formats.tiff.TiffImagingParameters;
+import org.apache.commons.imaging.formats.tiff.TiffReader;
+import org.apache.commons.imaging.formats.tiff.constants.TiffTagConstants;
+
+/**
+ * Decodes a TIFF file a band of rows at a time.
+ * <p>
+ * Only the directory of the first image is parsed up front; strip (or tile) data stays in the file and is read
+ * when a band overlapping it is requested, so the whole image is never held in memory. Bands are aligned on
+ * the strips of the file and hold at least {@value #MIN_BAND_HEIGHT} rows, so a strip is not decoded twice
+ * for the same band.
+ */
+class TiffStripReader {
+    private static final int MIN_BAND_HEIGHT = 64;
+
+    private final TiffDirectory directory;
+    private final ByteOrder byteOrder;
+    private final int width;
+    private final int height;
+    private final int bandHeight;
+
+    TiffStripReader(final File input) throws ImageReadException, IOException {
+        final TiffReader tiffReader = new TiffReader(false);
+        this.directory = tiffReader.readFirstDirectory(new ByteSourceFile(input), true, FormatCompliance.getDefault())
+                                 .directories.get(0);
+        this.byteOrder = tiffReader.getByteOrder();
+        this.width = directory.getSingleFieldValue(TiffTagConstants.TIFF_TAG_IMAGE_WIDTH);
+        this.height = directory.getSingleFieldValue(TiffTagConstants.TIFF_TAG_IMAGE_LENGTH);
+
+        final TiffField blockHeight = directory.imageDataInStrips()
+                                              ? directory.findField(TiffTagConstants.TIFF_TAG_ROWS_PER_STRIP)
+                                              : directory.findField(TiffTagConstants.TIFF_TAG_TILE_LENGTH);
+        final int rowsPerBlock = blockHeight == null ? height
+                                                     : Math.max(1, Math.min(height, blockHeight.getIntValue()));
+        this.bandHeight = ((MIN_BAND_HEIGHT + rowsPerBlock - 1) / rowsPerBlock) * rowsPerBlock;
+    }
+
+    int width() {
+        return width;
+    }
+
+    int height() {
+        return height;
+    }
+
+    /**
+     * Number of rows of a band; bands start on multiples of it.
+     */
+    int bandHeight() {
+        return bandHeight;
+    }
+
+    /**
+     * Decodes the band containing {@code row}. The returned image starts at row {@link #bandStart(int)}.
+     */
+    BufferedImage readBand(final int row) throws ImageReadException, IOException {
+        final int firstRow = bandStart(row);
+        final TiffImagingParameters params = new TiffImagingParameters();
+        params.setSubImage(0, firstRow, width, Math.min(bandHeight, height - firstRow));
+
+        final BufferedImage band = directory.getTiffImage(byteOrder, params);
+        if (band == null) {
+            throw new ImageReadException("TIFF does not contain an image.");
+        }
+        return band;
+    }
+
+    int bandStart(final int row) {
+        return row - row % bandHeight;
+    }
+}
@@ -0,0 +1,389 @@
+package com.ajay.bio.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import static com.ajay.bio.util.FloodFillEngine.BOUNDARY_TO_MARK_DISTANCE;
+import static com.ajay.bio.util.FloodFillEngine.VALID_BOUNDARY_THRESHOLD;
+import static com.ajay.bio.util.ImageProcessingStrategyTwo.MAX_ISLAND_SIZE;
+import static com.ajay.bio.util.ImageProcessingStrategyTwo.MIN_ISLAND_SIZE;
+
+/**
+ * Tile parallel counterpart of the serial pass loop in {@link ImageProcessingStrategyTwo}.
+ * <p>
+ * Each pass is split in three steps:
+ * <ol>
+ *     <li>the image is cut into horizontal tiles which are labelled in parallel with a union-find over the
+ *     candidate pixels (not visited, above the dot limit); tiles do not overlap, the islands crossing a
+ *     boundary between two tiles are joined afterwards. Roots always link to the smaller index, so the root
+ *     of an island is the pixel the serial row by row scan would have used as seed.</li>
+ *     <li>every tile expands the islands seeded in it, grows their rings and checks their boundary in
+ *     parallel; none of this depends on the islands accepted so far.</li>
+ *     <li>the islands are committed one by one in seed order, applying the collision check against the
+ *     islands accepted before them, exactly as the serial scan does.</li>
+ * </ol>
+ * The serial scan puts an island below the minimum size back and seeds it again from each of its pixels
+ * further on, so it stays visited if an island accepted in between touches it. Small islands are therefore
+ * checked once the scan passes their last pixel, which leaves the same pixels visited for the next passes.
+ */
+class TiledIslandDetector implements AutoCloseable {
+    private static final int NOT_CANDIDATE = -1;
+    private static final int EXPANDED = -2;
+    private static final int TILES_PER_THREAD = 4;
+
+    private final GreenPlane greenPlane;
+    private final ForkJoinPool pool;
+    private final int width;
+    private final int height;
+    private final int tileHeight;
+    private final int tileCount;
+
+    private final PixelMask visited;
+    private final PixelMask islandMask;
+    private final PixelMask boundaryMask;
+
+    // union-find parents of the current pass, NOT_CANDIDATE for pixels which are not part of any island
+    private final int[] labels;
+
+    private final PixelMaskStorage maskStorage;
+    private final ConcurrentLinkedQueue<Worker> idleWorkers = new ConcurrentLinkedQueue<>();
+
+    TiledIslandDetector(final GreenPlane greenPlane, final ForkJoinPool pool, final PixelMaskStorage maskStorage) {
+        this.greenPlane = greenPlane;
+        this.pool = pool;
+        this.maskStorage = maskStorage;
+        this.width = greenPlane.width();
+        this.height = greenPlane.height();
+
+        final int tiles = Math.max(1, Math.min(height, pool.getParallelism() * TILES_PER_THREAD));
+        this.tileHeight = (height + tiles - 1) / tiles;
+        this.tileCount = (height + tileHeight - 1) / tileHeight;
+
+        final int pixelCount = width * height;
+        this.visited = maskStorage.allocate(pixelCount);
+        this.islandMask = maskStorage.allocate(pixelCount);
+        this.boundaryMask = maskStorage.allocate(pixelCount);
+        this.labels = new int[pixelCount];
+    }
+
+    /**
+     * Runs one pass and returns the number of islands accepted in it.
+     */
+    int runPass(final double dotLimit, final double backgroundLimit) {
+        forEachTile(tile -> labelTile(tile, dotLimit));
+        for (int tile = 1; tile < tileCount; tile++) {
+            mergeSeam(tile * tileHeight);
+        }
+        forEachTile(this::flattenTile);
+
+        final List<List<Island>> tileIslands = new ArrayList<>(tileCount);
+        for (int tile = 0; tile < tileCount; tile++) {
+            tileIslands.add(null);
+        }
+        forEachTile(tile -> tileIslands.set(tile, expandTile(tile, backgroundLimit)));
+
+        // every candidate is visited now, only small islands are put back below
+        for (int index = 0; index < labels.length; index++) {
+            if (labels[index] == EXPANDED) {
+                visited.set(index);
+            }
+        }
+
+        int count = 0;
+        // small islands waiting for the scan to reach their last pixel
+        final PriorityQueue<Island> smallIslands = new PriorityQueue<>(Comparator.comparingInt(Island::lastPixel));
+        for (final List<Island> islands : tileIslands) {
+            for (final Island island : islands) {
+                while (!smallIslands.isEmpty() && smallIslands.peek().lastPixel() < island.seed()) {
+                    putBack(smallIslands.poll());
+                }
+
+                if (island.outerRing == null) {
+                    smallIslands.add(island);
+                } else if (commit(island)) {
+                    ++count;
+                }
+            }
+        }
+        while (!smallIslands.isEmpty()) {
+            putBack(smallIslands.poll());
+        }
+
+        return count;
+    }
+
+    void markBoundary(final PixelMarks marks, final int rgb) {
+        for (int index = boundaryMask.nextSetBit(0); index >= 0; index = boundaryMask.nextSetBit(index + 1)) {
+            marks.add(index, rgb);
+        }
+    }
+
+    @Override
+    public void close() {
+        visited.close();
+        islandMask.close();
+        boundaryMask.close();
+        for (Worker worker = idleWorkers.poll(); worker != null; worker = idleWorkers.poll()) {
+            worker.rings.close();
+        }
+    }
+
+    /**
+     * Applies the serial rules to an island with a valid boundary in seed order: collision, size and then
+     * boundary check; the latter two were already decided while expanding.
+     */
+    private boolean commit(final Island island) {
+        if (collides(island)) {
+            return false;
+        }
+
+        for (final int pixel : island.pixels) {
+            islandMask.set(pixel);
+        }
+        for (final int pixel : island.innerRing) {
+            islandMask.set(pixel);
+        }
+        for (final int pixel : island.outerRing) {
+            boundaryMask.set(pixel);
+        }
+        return true;
+    }
+
+    /**
+     * Gives the pixels of a small island another chance in the next passes, unless an island accepted up to
+     * its last pixel touches it; the serial scan seeds it for the last time there.
+     */
+    private void putBack(final Island island) {
+        if (collides(island)) {
+            return;
+        }
+
+        for (final int pixel : island.pixels) {
+            visited.clear(pixel);
+        }
+    }
+
+    private boolean collides(final Island island) {
+        for (final int pixel : island.innerRing) {
+            if (islandMask.get(pixel)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void labelTile(final int tile, final double dotLimit) {
+        final int firstRow = tile * tileHeight;
+        final int lastRow = Math.min(height, firstRow + tileHeight);
+        for (int y = firstRow; y < lastRow; y++) {
+            for (int x = 0; x < width; x++) {
+                final int index = y * width + x;
+                if (visited.get(index) || greenPlane.green(index) < dotLimit) {
+                    labels[index] = NOT_CANDIDATE;
+                    continue;
+                }
+
+                labels[index] = index;
+                if (x > 0) {
+                    union(index, index - 1);
+                }
+                if (y > firstRow) {
+                    for (int nx = Math.max(0, x - 1); nx <= Math.min(width - 1, x + 1); nx++) {
+                        union(index, index - width - x + nx);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Merges the islands of the first row of a tile with those of the last row of the tile above it.
+     */
+    private void mergeSeam(final int row) {
+        for (int x = 0; x < width; x++) {
+            final int index = row * width + x;
+            for (int nx = Math.max(0, x - 1); nx <= Math.min(width - 1, x + 1); nx++) {
+                union(index, index - width - x + nx);
+            }
+        }
+    }
+
+    private void flattenTile(final int tile) {
+        final int from = tile * tileHeight * width;
+        final int to = Math.min(height, (tile + 1) * tileHeight) * width;
+        for (int index = from; index < to; index++) {
+            if (labels[index] != NOT_CANDIDATE) {
+                int root = labels[index];
+                while (labels[root] != root) {
+                    root = labels[root];
+                }
+                labels[index] = root;
+            }
+        }
+    }
+
+    private List<Island> expandTile(final int tile, final double backgroundLimit) {
+        Worker worker = idleWorkers.poll();
+        if (worker == null) {
+            worker = new Worker();
+        }
+
+        final List<Island> islands = new ArrayList<>();
+        final int from = tile * tileHeight * width;
+        final int to = Math.min(height, (tile + 1) * tileHeight) * width;
+        for (int index = from; index < to; index++) {
+            if (labels[index] == index) {
+                final Island island = worker.expand(index, backgroundLimit);
+                if (island != null) {
+                    islands.add(island);
+                }
+            }
+        }
+
+        idleWorkers.add(worker);
+        return islands;
+    }
+
+    private void union(final int first, final int second) {
+        if (labels[first] == NOT_CANDIDATE || labels[second] == NOT_CANDIDATE) {
+            return;
+        }
+
+        final int firstRoot = find(first);
+        final int secondRoot = find(second);
+        if (firstRoot < secondRoot) {
+            labels[secondRoot] = firstRoot;
+        } else if (secondRoot < firstRoot) {
+            labels[firstRoot] = secondRoot;
+        }
+    }
+
+    private int find(int index) {
+        while (labels[index] != index) {
+            labels[index] = labels[labels[index]];
+            index = labels[index];
+        }
+        return index;
+    }
+
+    private void forEachTile(final TileAction action) {
+        final List<ForkJoinTask<?>> tasks = new ArrayList<>(tileCount);
+        for (int tile = 0; tile < tileCount; tile++) {
+            final int current = tile;
+            tasks.add(pool.submit(() -> action.run(current)));
+        }
+        tasks.forEach(ForkJoinTask::join);
+    }
+
+    private interface TileAction {
+        void run(int tile);
+    }
+
+    /**
+     * An island which may change the result once committed: either small enough to be put back, or with a
+     * valid boundary. Others stay visited whatever happens, so they are not kept at all.
+     */
+    private static class Island {
+        final int[] pixels;
+        final int[] innerRing;
+        final int[] outerRing;
+        // the pixel where the serial scan seeds a small island for the last time
+        final int lastPixel;
+
+        Island(final int[] pixels, final int[] innerRing, final int[] outerRing) {
+            this.pixels = pixels;
+            this.innerRing = innerRing;
+            this.outerRing = outerRing;
+            this.lastPixel = Arrays.stream(pixels).max().orElse(-1);
+        }
+
+        int seed() {
+            return pixels[0];
+        }
+
+        int lastPixel() {
+            return lastPixel;
+        }
+    }
+
+    /**
+     * Per thread scratch space for expanding islands.
+     */
+    private class Worker {
+        private final IslandRings rings = new IslandRings(width, height, BOUNDARY_TO_MARK_DISTANCE, maskStorage);
+        private int[] stack = new int[1024];
+        private int[] island = new int[1024];
+
+        Island expand(final int seed, final double backgroundLimit) {
+            final int islandSize = expandIsland(seed);
+            if (islandSize > MAX_ISLAND_SIZE) {
+                return null;
+            }
+
+            if (islandSize < MIN_ISLAND_SIZE) {
+                rings.grow(island, islandSize, 1);
+                return new Island(Arrays.copyOf(island, islandSize), rings.copyOf(1), null);
+            }
+
+            rings.grow(island, islandSize, BOUNDARY_TO_MARK_DISTANCE);
+            if (!isValidBoundary(backgroundLimit)) {
+                return null;
+            }
+
+            return new Island(Arrays.copyOf(island, islandSize), rings.copyOf(1),
+                              rings.copyOf(BOUNDARY_TO_MARK_DISTANCE));
+        }
+
+        /**
+         * Collects the pixels labelled with {@code seed}; they all belong to this worker's tile task.
+         */
+        private int expandIsland(final int seed) {
+            int islandSize = 0;
+            int top = 0;
+            stack[top++] = seed;
+            labels[seed] = EXPANDED;
+
+            while (top > 0) {
+                final int current = stack[--top];
+                if (islandSize == island.length) {
+                    island = Arrays.copyOf(island, islandSize * 2);
+                }
+                island[islandSize++] = current;
+
+                final int x = current % width;
+                final int y = current / width;
+                for (int ny = Math.max(0, y - 1); ny <= Math.min(height - 1, y + 1); ny++) {
+                    for (int nx = Math.max(0, x - 1); nx <= Math.min(width - 1, x + 1); nx++) {
+                        final int neighbour = ny * width + nx;
+                        if (labels[neighbour] == seed) {
+                            labels[neighbour] = EXPANDED;
+                            if (top == stack.length) {
+                                stack = Arrays.copyOf(stack, top * 2);
+                            }
+                            stack[top++] = neighbour;
+                        }
+                    }
+                }
+            }
+
+            return islandSize;
+        }
+
+        private boolean isValidBoundary(final double backgroundLimit) {
+            long matchCount = 0;
+            for (int i = rings.start(BOUNDARY_TO_MARK_DISTANCE); i < rings.end(BOUNDARY_TO_MARK_DISTANCE); i++) {
+                if (greenPlane.green(rings.pixel(i)) <= backgroundLimit) {
+                    ++matchCount;
+                }
+            }
+
+            return ((double) matchCount / rings.size(BOUNDARY_TO_MARK_DISTANCE)) > VALID_BOUNDARY_THRESHOLD;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.ajay.bio.util;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Runs the serial scan and its tile parallel and component tree counterparts on the same plane and checks they
+ * find the same dots with the same marked boundary.
+ */
+class DotCountingEquivalenceTest {
+    private static final int SIZE = 512;
+
+    @Test
+    void tiledMatchesSerial() throws IOException {
+        for (long seed = 1; seed <= 4; seed++) {
+            final GreenPlane greenPlane = GreenPlane.of(plate(SIZE, seed));
+            final Result serial = count(greenPlane, 1, false);
+            for (final int tileParallelism : new int[]{2, 3, 8}) {
+                final Result tiled = count(greenPlane, tileParallelism, false);
+                assertEquals(serial.count, tiled.count, "count, seed " + seed + ", " + tileParallelism + " tiles");
+                assertEquals(serial.boundary, tiled.boundary,
+                             "boundary, seed " + seed + ", " + tileParallelism + " tiles");
+            }
+        }
+    }
+
+    @Test
+    void componentTreeMatchesSerial() throws IOException {
+        for (long seed = 1; seed <= 4; seed++) {
+            final GreenPlane greenPlane = GreenPlane.of(plate(SIZE, seed));
+            final Result serial = count(greenPlane, 1, false);
+            final Result componentTree = count(greenPlane, 1, true);
+            assertEquals(serial.count, componentTree.count, "count, seed " + seed);
+            assertEquals(serial.boundary, componentTree.boundary, "boundary, seed " + seed);
+        }
+    }
+
+    private static Result count(final GreenPlane greenPlane, final int tileParallelism, final boolean componentTree)
+            throws IOException {
+        final PixelMarks marks = new PixelMarks(greenPlane.width());
+        final int count = ImageProcessingStrategyTwo.countAndMarkDots(greenPlane, marks, tileParallelism,
+                                                                      componentTree, PixelMaskStorage.HEAP,
+                                                                      new ProcessingMetrics());
+        final StringWriter boundary = new StringWriter();
+        marks.writeRuns(boundary);
+        return new Result(count, boundary.toString());
+    }
+
+    /**
+     * A dense plate: noisy background with dots of all sizes and two pixel specks, many of them close enough to
+     * touch, so small islands next to accepted dots and islands crossing tile boundaries are common.
+     */
+    private static BufferedImage plate(final int size, final long seed) {
+        final Random random = new Random(seed);
+        final double[] green = new double[size * size];
+        for (int i = 0; i < green.length; i++) {
+            green[i] = 5 + random.nextGaussian() * 3;
+        }
+
+        for (int dot = 0; dot < 600; dot++) {
+            final int centerX = random.nextInt(size);
+            final int centerY = random.nextInt(size);
+            final double sigma = 0.5 + random.nextDouble() * (random.nextInt(10) == 0 ? 12 : 3);
+            final double amplitude = 20 + random.nextDouble() * 220;
+            final int reach = (int) (sigma * 3) + 1;
+            for (int y = Math.max(0, centerY - reach); y < Math.min(size, centerY + reach); y++) {
+                for (int x = Math.max(0, centerX - reach); x < Math.min(size, centerX + reach); x++) {
+                    final double distance = ((x - centerX) * (x - centerX) + (y - centerY) * (y - centerY))
+                                                    / (2 * sigma * sigma);
+                    green[y * size + x] += amplitude * Math.exp(-distance);
+                }
+            }
+        }
+
+        for (int speck = 0; speck < 6000; speck++) {
+            // below the minimum island size and spanning two rows, so the serial scan seeds it twice
+            final int x = 1 + random.nextInt(size - 2);
+            final int y = random.nextInt(size - 1);
+            final double value = 25 + random.nextDouble() * 200;
+            green[y * size + x] = value;
+            green[(y + 1) * size + x + random.nextInt(3) - 1] = value;
+        }
+
+        final BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                final int value = (int) Math.max(0, Math.min(255, green[y * size + x]));
+                image.setRGB(x, y, value << 8);
+            }
+        }
+        return image;
+    }
+
+    private static class Result {
+        final int count;
+        final String boundary;
+
+        Result(final int count, final String boundary) {
+            this.count = count;
+            this.boundary = boundary;
+        }
+    }
+}
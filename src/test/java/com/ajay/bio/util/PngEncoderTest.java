@@ -0,0 +1,66 @@
+package com.ajay.bio.util;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Writes images with {@link PngEncoder} and checks the ImageIO PNG reader gets the same pixels back.
+ */
+class PngEncoderTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void rgbRoundTrips() throws IOException {
+        for (final int level : new int[]{0, 1, 9}) {
+            assertRoundTrips(image(300, 150, BufferedImage.TYPE_INT_RGB), level);
+        }
+    }
+
+    @Test
+    void alphaRoundTrips() throws IOException {
+        assertRoundTrips(image(70, 200, BufferedImage.TYPE_INT_ARGB), 1);
+    }
+
+    @Test
+    void replacesLongerFile() throws IOException {
+        final File output = tempDir.resolve("image.png").toFile();
+        PngEncoder.write(image(400, 400, BufferedImage.TYPE_INT_RGB), 0, output);
+        assertRoundTrips(image(10, 10, BufferedImage.TYPE_INT_RGB), 1);
+    }
+
+    private void assertRoundTrips(final BufferedImage image, final int level) throws IOException {
+        final File output = tempDir.resolve("image.png").toFile();
+        PngEncoder.write(image, level, output);
+
+        final BufferedImage read = ImageIO.read(output);
+        assertEquals(image.getWidth(), read.getWidth());
+        assertEquals(image.getHeight(), read.getHeight());
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                assertEquals(image.getRGB(x, y), read.getRGB(x, y), "pixel " + x + "," + y + ", level " + level);
+            }
+        }
+    }
+
+    private static BufferedImage image(final int width, final int height, final int type) {
+        final Random random = new Random(width * 31L + height);
+        final BufferedImage image = new BufferedImage(width, height, type);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, random.nextInt());
+            }
+        }
+        return image;
+    }
+}